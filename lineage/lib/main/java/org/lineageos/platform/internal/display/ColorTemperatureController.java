@@ -30,6 +30,7 @@ import android.view.animation.AccelerateDecelerateInterpolator;
 import org.lineageos.platform.internal.display.TwilightTracker.TwilightState;
 
 import java.io.PrintWriter;
+import java.util.Arrays;
 import java.util.BitSet;
 
 import lineageos.hardware.LineageHardwareManager;
@@ -41,10 +42,14 @@ import static lineageos.hardware.LiveDisplayManager.MODE_AUTO;
 import static lineageos.hardware.LiveDisplayManager.MODE_DAY;
 import static lineageos.hardware.LiveDisplayManager.MODE_NIGHT;
 import static lineageos.hardware.LiveDisplayManager.MODE_OFF;
+import static org.lineageos.platform.internal.display.LiveDisplayService.DISPLAY_CHANGED;
+import static org.lineageos.platform.internal.display.LiveDisplayService.MODE_CHANGED;
+import static org.lineageos.platform.internal.display.LiveDisplayService.TWILIGHT_CHANGED;
 
 public class ColorTemperatureController extends LiveDisplayFeature {
 
     private final DisplayHardwareController mDisplayHardware;
+    private final Runnable mTemperatureChangedCallback;
 
     private final boolean mUseTemperatureAdjustment;
     private final boolean mUseColorBalance;
@@ -59,6 +64,8 @@ public class ColorTemperatureController extends LiveDisplayFeature {
     private int mDayTemperature;
     private int mNightTemperature;
 
+    private long mNextTransitionTime = -1;
+
     private AccelerateDecelerateInterpolator mInterpolator;
     private ValueAnimator mAnimator;
 
@@ -66,15 +73,24 @@ public class ColorTemperatureController extends LiveDisplayFeature {
 
     private static final long TWILIGHT_ADJUSTMENT_TIME = DateUtils.HOUR_IN_MILLIS / 2;
 
+    // Never step the transition faster than this, even if the visible value would change
+    private static final long TWILIGHT_MIN_STEP_INTERVAL = DateUtils.MINUTE_IN_MILLIS / 2;
+
     private static final Uri DISPLAY_TEMPERATURE_DAY =
             LineageSettings.System.getUriFor(LineageSettings.System.DISPLAY_TEMPERATURE_DAY);
     private static final Uri DISPLAY_TEMPERATURE_NIGHT =
             LineageSettings.System.getUriFor(LineageSettings.System.DISPLAY_TEMPERATURE_NIGHT);
 
+    /**
+     * @param temperatureChangedCallback run whenever the applied color temperature
+     *                                   changes, including every transition step
+     */
     public ColorTemperatureController(Context context,
-            Handler handler, DisplayHardwareController displayHardware) {
+            Handler handler, DisplayHardwareController displayHardware,
+            Runnable temperatureChangedCallback) {
         super(context, handler);
         mDisplayHardware = displayHardware;
+        mTemperatureChangedCallback = temperatureChangedCallback;
         mHardware = LineageHardwareManager.getInstance(mContext);
 
         mUseColorBalance = mHardware
@@ -133,6 +149,11 @@ public class ColorTemperatureController extends LiveDisplayFeature {
         updateColorTemperature();
     }
 
+    @Override
+    protected int getUpdateFlags() {
+        return DISPLAY_CHANGED | MODE_CHANGED | TWILIGHT_CHANGED;
+    }
+
     @Override
     protected void onScreenStateChanged() {
         if (mAnimator != null && mAnimator.isRunning() && !isScreenOn()) {
@@ -168,6 +189,7 @@ public class ColorTemperatureController extends LiveDisplayFeature {
         pw.println("  ColorTemperatureController State:");
         pw.println("    mColorTemperature=" + mColorTemperature);
         pw.println("    isTransitioning=" + isTransitioning());
+        pw.println("    mNextTransitionTime=" + mNextTransitionTime);
     }
 
     private final Runnable mTransitionRunnable = new Runnable() {
@@ -205,9 +227,17 @@ public class ColorTemperatureController extends LiveDisplayFeature {
 
         setDisplayTemperature(temperature);
 
-        if (isTransitioning()) {
-            // fire again in 30 seconds
-            mHandler.postDelayed(mTransitionRunnable, DateUtils.MINUTE_IN_MILLIS / 2);
+        mHandler.removeCallbacks(mTransitionRunnable);
+        mNextTransitionTime = -1;
+
+        if (mode == MODE_AUTO) {
+            // fire again only when the value pushed to the hardware will change
+            final long now = System.currentTimeMillis();
+            final long next = getNextTwilightChange(now);
+            if (next > 0) {
+                mNextTransitionTime = Math.max(next, now + TWILIGHT_MIN_STEP_INTERVAL);
+                mHandler.postDelayed(mTransitionRunnable, mNextTransitionTime - now);
+            }
         }
     }
 
@@ -269,7 +299,10 @@ public class ColorTemperatureController extends LiveDisplayFeature {
             return;
         }
 
-        mColorTemperature = temperature;
+        if (mColorTemperature != temperature) {
+            mColorTemperature = temperature;
+            mTemperatureChangedCallback.run();
+        }
 
         if (mUseColorBalance) {
             int balance = mapColorTemperatureToBalance(temperature);
@@ -324,11 +357,14 @@ public class ColorTemperatureController extends LiveDisplayFeature {
      * @return color temperature in Kelvin
      */
     private int getTwilightK() {
+        return getTwilightK(System.currentTimeMillis());
+    }
+
+    private int getTwilightK(long now) {
         float adjustment = 1.0f;
         final TwilightState twilight = getTwilight();
 
         if (twilight != null) {
-            final long now = System.currentTimeMillis();
             adjustment = adj(now, twilight.getYesterdaySunset(), twilight.getTodaySunrise()) *
                     adj(now, twilight.getTodaySunset(), twilight.getTomorrowSunrise());
         }
@@ -336,6 +372,68 @@ public class ColorTemperatureController extends LiveDisplayFeature {
         return (int)MathUtils.lerp(mNightTemperature, mDayTemperature, adjustment);
     }
 
+    /**
+     * The value which is actually pushed to the hardware at the given time
+     * while in auto mode. Either a color balance or a temperature in Kelvin.
+     */
+    private int getTwilightStep(long now) {
+        final int temperature = getTwilightK(now);
+        return mUseColorBalance ? mapColorTemperatureToBalance(temperature) : temperature;
+    }
+
+    /**
+     * Find the next time at which the visible twilight adjustment will change.
+     *
+     * The adjustment is monotonic between the edges of the transition windows
+     * around sunset and sunrise, so the first change within each window can
+     * be found with a binary search.
+     *
+     * @param now
+     * @return wall clock time in millis, or -1 if nothing changes before the
+     *         next twilight update
+     */
+    private long getNextTwilightChange(long now) {
+        final TwilightState twilight = getTwilight();
+        if (twilight == null) {
+            return -1;
+        }
+
+        final long[] edges = new long[] {
+                twilight.getYesterdaySunset() - TWILIGHT_ADJUSTMENT_TIME,
+                twilight.getYesterdaySunset(),
+                twilight.getTodaySunrise(),
+                twilight.getTodaySunrise() + TWILIGHT_ADJUSTMENT_TIME,
+                twilight.getTodaySunset() - TWILIGHT_ADJUSTMENT_TIME,
+                twilight.getTodaySunset(),
+                twilight.getTomorrowSunrise(),
+                twilight.getTomorrowSunrise() + TWILIGHT_ADJUSTMENT_TIME };
+        Arrays.sort(edges);
+
+        final int current = getTwilightStep(now);
+        long start = now;
+
+        for (long edge : edges) {
+            if (edge <= start) {
+                continue;
+            }
+            if (getTwilightStep(edge) != current) {
+                long lo = start;
+                long hi = edge;
+                while (hi - lo > 1) {
+                    final long mid = lo + (hi - lo) / 2;
+                    if (getTwilightStep(mid) != current) {
+                        hi = mid;
+                    } else {
+                        lo = mid;
+                    }
+                }
+                return hi;
+            }
+            start = edge;
+        }
+        return -1;
+    }
+
     int getDefaultDayTemperature() {
         return mDefaultDayTemperature;
     }
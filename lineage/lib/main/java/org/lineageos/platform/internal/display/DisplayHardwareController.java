@@ -39,6 +39,9 @@ import lineageos.hardware.LineageHardwareManager;
 import lineageos.hardware.LiveDisplayManager;
 import lineageos.providers.LineageSettings;
 
+import static org.lineageos.platform.internal.display.LiveDisplayService.DISPLAY_CHANGED;
+import static org.lineageos.platform.internal.display.LiveDisplayService.LOW_POWER_CHANGED;
+
 public class DisplayHardwareController extends LiveDisplayFeature {
 
     private final LineageHardwareManager mHardware;
@@ -212,6 +215,11 @@ public class DisplayHardwareController extends LiveDisplayFeature {
         updateHardware();
     }
 
+    @Override
+    protected int getUpdateFlags() {
+        return DISPLAY_CHANGED | LOW_POWER_CHANGED;
+    }
+
     @Override
     protected synchronized void onScreenStateChanged() {
         if (mUseColorAdjustment) {
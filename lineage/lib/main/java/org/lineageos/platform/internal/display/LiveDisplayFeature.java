@@ -29,6 +29,7 @@ import java.util.BitSet;
 
 import static org.lineageos.platform.internal.display.LiveDisplayService.ALL_CHANGED;
 import static org.lineageos.platform.internal.display.LiveDisplayService.DISPLAY_CHANGED;
+import static org.lineageos.platform.internal.display.LiveDisplayService.LOW_POWER_CHANGED;
 import static org.lineageos.platform.internal.display.LiveDisplayService.MODE_CHANGED;
 import static org.lineageos.platform.internal.display.LiveDisplayService.TWILIGHT_CHANGED;
 
@@ -50,6 +51,17 @@ public abstract class LiveDisplayFeature extends LineageBaseFeature {
 
     protected abstract void onUpdate();
 
+    /**
+     * The state changes this feature depends on. Updates for anything
+     * else are not dispatched to it.
+     *
+     * @return mask of MODE_CHANGED, DISPLAY_CHANGED, TWILIGHT_CHANGED
+     *         and LOW_POWER_CHANGED
+     */
+    protected int getUpdateFlags() {
+        return ALL_CHANGED;
+    }
+
     void update(final int flags, final State state) {
         mState = state;
         if ((flags & DISPLAY_CHANGED) != 0) {
@@ -58,7 +70,7 @@ public abstract class LiveDisplayFeature extends LineageBaseFeature {
         if (((flags & TWILIGHT_CHANGED) != 0) && mState.mTwilight != null) {
             onTwilightUpdated();
         }
-        if ((flags & MODE_CHANGED) != 0) {
+        if ((flags & (MODE_CHANGED | LOW_POWER_CHANGED)) != 0) {
             onUpdate();
         }
         if (flags == ALL_CHANGED) {
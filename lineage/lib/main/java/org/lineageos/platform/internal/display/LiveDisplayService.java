@@ -30,7 +30,12 @@ import android.os.PowerManager.ServiceType;
 import android.os.PowerManagerInternal;
 import android.os.PowerSaveState;
 import android.os.Process;
+import android.os.RemoteCallbackList;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.UserHandle;
+import android.text.format.DateUtils;
+import android.util.Slog;
 import android.view.Display;
 
 import com.android.server.LocalServices;
@@ -44,7 +49,9 @@ import org.lineageos.platform.internal.display.TwilightTracker.TwilightState;
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
@@ -52,7 +59,10 @@ import java.util.Locale;
 import lineageos.app.LineageContextConstants;
 import lineageos.hardware.HSIC;
 import lineageos.hardware.ILiveDisplayService;
+import lineageos.hardware.ILiveDisplayStateListener;
+import lineageos.hardware.LineageHardwareManager;
 import lineageos.hardware.LiveDisplayConfig;
+import lineageos.hardware.LiveDisplayState;
 import lineageos.providers.LineageSettings;
 
 import static lineageos.hardware.LiveDisplayManager.MODE_FIRST;
@@ -78,29 +88,44 @@ public class LiveDisplayService extends LineageSystemService {
 
     private DisplayManager mDisplayManager;
     private ModeObserver mModeObserver;
+    private StateObserver mStateObserver;
     private final TwilightTracker mTwilightTracker;
 
     private boolean mAwaitingNudge = true;
     private boolean mSunset = false;
 
-    private final List<LiveDisplayFeature> mFeatures = new ArrayList<LiveDisplayFeature>();
+    // Replaced once by the started features, never modified
+    private volatile List<LiveDisplayFeature> mFeatures = Collections.emptyList();
 
     private ColorTemperatureController mCTC;
     private DisplayHardwareController mDHC;
     private OutdoorModeController mOMC;
     private PictureAdjustmentController mPAC;
 
-    private LiveDisplayConfig mConfig;
+    // Published last once the features are started, everything above
+    // may only be used after reading it as non-null
+    private volatile LiveDisplayConfig mConfig;
+
+    private volatile long mHalDiscoveryTime = -1;
+
+    private final RemoteCallbackList<ILiveDisplayStateListener> mStateListeners =
+            new RemoteCallbackList<ILiveDisplayStateListener>();
+    // Last state delivered to listeners, only touched on the handler thread
+    private LiveDisplayState mLastState;
 
     static int MODE_CHANGED = 1;
     static int DISPLAY_CHANGED = 2;
     static int TWILIGHT_CHANGED = 4;
+    static int LOW_POWER_CHANGED = 8;
     static int ALL_CHANGED = 255;
 
     // PowerManager ServiceType to use when we're only
     // interested in gleaning global battery saver state.
     private static final int SERVICE_TYPE_DUMMY = ServiceType.LOCATION;
 
+    // Longest we are willing to hold up boot waiting for HALs to show up
+    private static final long HAL_DISCOVERY_TIMEOUT = 2 * DateUtils.SECOND_IN_MILLIS;
+
     static class State {
         public boolean mLowPowerMode = false;
         public boolean mScreenOn = false;
@@ -118,6 +143,10 @@ public class LiveDisplayService extends LineageSystemService {
 
     private final State mState = new State();
 
+    // Flags of updates which have been posted but not yet dispatched
+    private final Object mUpdateLock = new Object();
+    private int mPendingUpdateFlags = 0;
+
     public LiveDisplayService(Context context) {
         super(context);
 
@@ -152,85 +181,249 @@ public class LiveDisplayService extends LineageSystemService {
 
             mAwaitingNudge = getSunsetCounter() < 1;
 
-            mDHC = new DisplayHardwareController(mContext, mHandler);
-            mFeatures.add(mDHC);
+            // Look up all HALs concurrently before the features probe them. The
+            // features only probe once, so a slow HAL must not be missed, but it
+            // must not stall boot either: wait for it on our own thread instead.
+            final long start = SystemClock.elapsedRealtime();
+            if (LineageHardwareManager.getInstance(mContext).awaitHIDLServices(
+                    HAL_DISCOVERY_TIMEOUT)) {
+                mHalDiscoveryTime = SystemClock.elapsedRealtime() - start;
+                startFeatures();
+                return;
+            }
 
-            mCTC = new ColorTemperatureController(mContext, mHandler, mDHC);
-            mFeatures.add(mCTC);
+            Slog.w(TAG, "HAL discovery did not finish in " + HAL_DISCOVERY_TIMEOUT
+                    + "ms, starting features once it does");
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    LineageHardwareManager.getInstance(mContext).awaitHIDLServices(-1);
+                    mHalDiscoveryTime = SystemClock.elapsedRealtime() - start;
+                    startFeatures();
+                }
+            });
+        }
+    }
 
-            mOMC = new OutdoorModeController(mContext, mHandler);
-            mFeatures.add(mOMC);
+    private void startFeatures() {
+        // Binder calls may come in while this runs, so build everything up
+        // here and only publish it once the features are started
+        final List<LiveDisplayFeature> features = new ArrayList<LiveDisplayFeature>();
 
-            mPAC = new PictureAdjustmentController(mContext, mHandler);
-            mFeatures.add(mPAC);
+        final DisplayHardwareController dhc = new DisplayHardwareController(mContext, mHandler);
+        features.add(dhc);
 
-            // Get capabilities, throw out any unused features
-            final BitSet capabilities = new BitSet();
-            for (Iterator<LiveDisplayFeature> it = mFeatures.iterator(); it.hasNext();) {
-                final LiveDisplayFeature feature = it.next();
-                if (!feature.getCapabilities(capabilities)) {
-                    it.remove();
-                }
+        final ColorTemperatureController ctc = new ColorTemperatureController(mContext,
+                mHandler, dhc, new Runnable() {
+            @Override
+            public void run() {
+                notifyStateChanged();
             }
+        });
+        features.add(ctc);
 
-            // static config
-            int defaultMode = mContext.getResources().getInteger(
-                    org.lineageos.platform.internal.R.integer.config_defaultLiveDisplayMode);
-
-            mConfig = new LiveDisplayConfig(capabilities, defaultMode,
-                    mCTC.getDefaultDayTemperature(), mCTC.getDefaultNightTemperature(),
-                    mOMC.getDefaultAutoOutdoorMode(), mDHC.getDefaultAutoContrast(),
-                    mDHC.getDefaultCABC(), mDHC.getDefaultColorEnhancement(),
-                    mCTC.getColorTemperatureRange(), mCTC.getColorBalanceRange(),
-                    mPAC.getHueRange(), mPAC.getSaturationRange(),
-                    mPAC.getIntensityRange(), mPAC.getContrastRange(),
-                    mPAC.getSaturationThresholdRange());
-
-            // listeners
-            mDisplayManager = (DisplayManager) getContext().getSystemService(
-                    Context.DISPLAY_SERVICE);
-            mDisplayManager.registerDisplayListener(mDisplayListener, null);
-            mState.mScreenOn = mDisplayManager.getDisplay(
-                    Display.DEFAULT_DISPLAY).getState() == Display.STATE_ON;
-
-            PowerManagerInternal pmi = LocalServices.getService(PowerManagerInternal.class);
-            pmi.registerLowPowerModeObserver(mLowPowerModeListener);
-            // ServiceType does not matter when retrieving global saver mode.
-            mState.mLowPowerMode =
-                    pmi.getLowPowerState(SERVICE_TYPE_DUMMY).globalBatterySaverEnabled;
-
-            mTwilightTracker.registerListener(mTwilightListener, mHandler);
-            mState.mTwilight = mTwilightTracker.getCurrentState();
+        final OutdoorModeController omc = new OutdoorModeController(mContext, mHandler);
+        features.add(omc);
 
-            if (mConfig.hasModeSupport()) {
-                mModeObserver = new ModeObserver(mHandler);
-                mState.mMode = mModeObserver.getMode();
-            }
+        final PictureAdjustmentController pac = new PictureAdjustmentController(mContext,
+                mHandler);
+        features.add(pac);
 
-            // start and update all features
-            for (int i = 0; i < mFeatures.size(); i++) {
-                mFeatures.get(i).start();
+        // Get capabilities, throw out any unused features
+        final BitSet capabilities = new BitSet();
+        for (Iterator<LiveDisplayFeature> it = features.iterator(); it.hasNext();) {
+            final LiveDisplayFeature feature = it.next();
+            if (!feature.getCapabilities(capabilities)) {
+                it.remove();
             }
+        }
+
+        // static config
+        int defaultMode = mContext.getResources().getInteger(
+                org.lineageos.platform.internal.R.integer.config_defaultLiveDisplayMode);
+
+        final LiveDisplayConfig config = new LiveDisplayConfig(capabilities, defaultMode,
+                ctc.getDefaultDayTemperature(), ctc.getDefaultNightTemperature(),
+                omc.getDefaultAutoOutdoorMode(), dhc.getDefaultAutoContrast(),
+                dhc.getDefaultCABC(), dhc.getDefaultColorEnhancement(),
+                ctc.getColorTemperatureRange(), ctc.getColorBalanceRange(),
+                pac.getHueRange(), pac.getSaturationRange(),
+                pac.getIntensityRange(), pac.getContrastRange(),
+                pac.getSaturationThresholdRange());
+
+        // listeners
+        mDisplayManager = (DisplayManager) getContext().getSystemService(
+                Context.DISPLAY_SERVICE);
+        mDisplayManager.registerDisplayListener(mDisplayListener, null);
+        mState.mScreenOn = mDisplayManager.getDisplay(
+                Display.DEFAULT_DISPLAY).getState() == Display.STATE_ON;
 
-            updateFeatures(ALL_CHANGED);
+        PowerManagerInternal pmi = LocalServices.getService(PowerManagerInternal.class);
+        pmi.registerLowPowerModeObserver(mLowPowerModeListener);
+        // ServiceType does not matter when retrieving global saver mode.
+        mState.mLowPowerMode =
+                pmi.getLowPowerState(SERVICE_TYPE_DUMMY).globalBatterySaverEnabled;
 
-            Intent intent = new Intent(lineageos.content.Intent.ACTION_INITIALIZE_LIVEDISPLAY);
-            intent.setPackage("com.android.systemui");
-            mContext.sendBroadcastAsUser(intent, UserHandle.SYSTEM);
+        // Know whether it's night before the first location fix arrives
+        mTwilightTracker.restoreState();
+        mTwilightTracker.registerListener(mTwilightListener, mHandler);
+        mState.mTwilight = mTwilightTracker.getCurrentState();
+
+        if (config.hasModeSupport()) {
+            mModeObserver = new ModeObserver(mHandler, config);
+            mState.mMode = mModeObserver.getMode();
+        }
+
+        // start and update all features
+        for (int i = 0; i < features.size(); i++) {
+            features.get(i).start();
         }
+
+        mDHC = dhc;
+        mCTC = ctc;
+        mOMC = omc;
+        mPAC = pac;
+        mFeatures = Collections.unmodifiableList(features);
+        mConfig = config;
+
+        updateFeatures(ALL_CHANGED);
+
+        mStateObserver = new StateObserver(mHandler);
+
+        Intent intent = new Intent(lineageos.content.Intent.ACTION_INITIALIZE_LIVEDISPLAY);
+        intent.setPackage("com.android.systemui");
+        mContext.sendBroadcastAsUser(intent, UserHandle.SYSTEM);
     }
 
     private void updateFeatures(final int flags) {
-        mHandler.post(new Runnable() {
-            @Override
-            public void run() {
-                for (int i = 0; i < mFeatures.size(); i++) {
-                    mFeatures.get(i).update(flags, mState);
+        synchronized (mUpdateLock) {
+            // Fold into an update which is already on its way
+            final boolean posted = mPendingUpdateFlags != 0;
+            mPendingUpdateFlags |= flags;
+            if (!posted) {
+                mHandler.post(mUpdateFeaturesRunnable);
+            }
+        }
+        notifyStateChanged();
+    }
+
+    private final Runnable mUpdateFeaturesRunnable = new Runnable() {
+        @Override
+        public void run() {
+            final int flags;
+            synchronized (mUpdateLock) {
+                flags = mPendingUpdateFlags;
+                mPendingUpdateFlags = 0;
+            }
+            final List<LiveDisplayFeature> features = mFeatures;
+            for (int i = 0; i < features.size(); i++) {
+                final LiveDisplayFeature feature = features.get(i);
+                // Only tell each feature about the state it depends on
+                final int featureFlags = flags == ALL_CHANGED ?
+                        flags : flags & feature.getUpdateFlags();
+                if (featureFlags != 0) {
+                    feature.update(featureFlags, mState);
                 }
             }
-        });
+        }
+    };
+
+    // Returns null until the features are started
+    private LiveDisplayState getState() {
+        final LiveDisplayConfig config = mConfig;
+        if (config == null) {
+            return null;
+        }
+        final TwilightState twilight = mTwilightTracker.getCurrentState();
+        return new LiveDisplayState.Builder()
+                .setMode(config.hasModeSupport() ? mModeObserver.getMode() : MODE_OFF)
+                .setColorTemperature(mCTC.getColorTemperature())
+                .setDayColorTemperature(mCTC.getDayColorTemperature())
+                .setNightColorTemperature(mCTC.getNightColorTemperature())
+                .setAutoContrastEnabled(mDHC.isAutoContrastEnabled())
+                .setAutomaticOutdoorModeEnabled(mOMC.isAutomaticOutdoorModeEnabled())
+                .setCABCEnabled(mDHC.isCABCEnabled())
+                .setColorEnhancementEnabled(mDHC.isColorEnhancementEnabled())
+                .setAntiFlickerEnabled(mDHC.isAntiFlickerEnabled())
+                .setNight(twilight != null && twilight.isNight())
+                .setColorAdjustment(mDHC.getColorAdjustment())
+                .setPictureAdjustment(mPAC.getPictureAdjustment())
+                .build();
+    }
+
+    private boolean setState(LiveDisplayState state) {
+        final LiveDisplayState current = getState();
+        if (current == null) {
+            return false;
+        }
+        boolean result = true;
+
+        if (state.getMode() != current.getMode()) {
+            result &= mConfig.hasModeSupport() && mModeObserver.setMode(state.getMode());
+        }
+        if (state.getDayColorTemperature() != current.getDayColorTemperature()) {
+            mCTC.setDayColorTemperature(state.getDayColorTemperature());
+        }
+        if (state.getNightColorTemperature() != current.getNightColorTemperature()) {
+            mCTC.setNightColorTemperature(state.getNightColorTemperature());
+        }
+        if (state.isAutoContrastEnabled() != current.isAutoContrastEnabled()) {
+            result &= mDHC.setAutoContrastEnabled(state.isAutoContrastEnabled());
+        }
+        if (state.isAutomaticOutdoorModeEnabled() != current.isAutomaticOutdoorModeEnabled()) {
+            result &= mOMC.setAutomaticOutdoorModeEnabled(
+                    state.isAutomaticOutdoorModeEnabled());
+        }
+        if (state.isCABCEnabled() != current.isCABCEnabled()) {
+            result &= mDHC.setCABCEnabled(state.isCABCEnabled());
+        }
+        if (state.isColorEnhancementEnabled() != current.isColorEnhancementEnabled()) {
+            result &= mDHC.setColorEnhancementEnabled(state.isColorEnhancementEnabled());
+        }
+        if (state.isAntiFlickerEnabled() != current.isAntiFlickerEnabled()) {
+            result &= mDHC.setAntiFlickerEnabled(state.isAntiFlickerEnabled());
+        }
+        if (!Arrays.equals(state.getColorAdjustment(), current.getColorAdjustment())) {
+            result &= mDHC.setColorAdjustment(state.getColorAdjustment());
+        }
+        final HSIC hsic = state.getPictureAdjustment();
+        if (hsic != null && (current.getPictureAdjustment() == null ||
+                !hsic.flatten().equals(current.getPictureAdjustment().flatten()))) {
+            result &= mPAC.setPictureAdjustment(hsic);
+        }
+        return result;
     }
 
+    private void notifyStateChanged() {
+        mHandler.removeCallbacks(mNotifyStateRunnable);
+        mHandler.post(mNotifyStateRunnable);
+    }
+
+    private final Runnable mNotifyStateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mConfig == null || mStateListeners.getRegisteredCallbackCount() == 0) {
+                mLastState = null;
+                return;
+            }
+            final LiveDisplayState state = getState();
+            if (state.equals(mLastState)) {
+                return;
+            }
+            mLastState = state;
+
+            int i = mStateListeners.beginBroadcast();
+            while (i-- > 0) {
+                try {
+                    mStateListeners.getBroadcastItem(i).onStateChanged(state);
+                } catch (RemoteException e) {
+                    // The RemoteCallbackList will take care of removing the dead object
+                }
+            }
+            mStateListeners.finishBroadcast();
+        }
+    };
+
     private final IBinder mBinder = new ILiveDisplayService.Stub() {
 
         @Override
@@ -251,7 +444,8 @@ public class LiveDisplayService extends LineageSystemService {
         public boolean setMode(int mode) {
             mContext.enforceCallingOrSelfPermission(
                     lineageos.platform.Manifest.permission.MANAGE_LIVEDISPLAY, null);
-            if (!mConfig.hasModeSupport()) {
+            final LiveDisplayConfig config = mConfig;
+            if (config == null || !config.hasModeSupport()) {
                 return false;
             }
             return mModeObserver.setMode(mode);
@@ -259,6 +453,9 @@ public class LiveDisplayService extends LineageSystemService {
 
         @Override
         public float[] getColorAdjustment() {
+            if (mConfig == null) {
+                return new float[] { 1.0f, 1.0f, 1.0f };
+            }
             return mDHC.getColorAdjustment();
         }
 
@@ -266,11 +463,17 @@ public class LiveDisplayService extends LineageSystemService {
         public boolean setColorAdjustment(float[] adj) {
             mContext.enforceCallingOrSelfPermission(
                     lineageos.platform.Manifest.permission.MANAGE_LIVEDISPLAY, null);
+            if (mConfig == null) {
+                return false;
+            }
             return mDHC.setColorAdjustment(adj);
         }
 
         @Override
         public boolean isAutoContrastEnabled() {
+            if (mConfig == null) {
+                return false;
+            }
             return mDHC.isAutoContrastEnabled();
         }
 
@@ -278,11 +481,17 @@ public class LiveDisplayService extends LineageSystemService {
         public  boolean setAutoContrastEnabled(boolean enabled) {
             mContext.enforceCallingOrSelfPermission(
                     lineageos.platform.Manifest.permission.MANAGE_LIVEDISPLAY, null);
+            if (mConfig == null) {
+                return false;
+            }
             return mDHC.setAutoContrastEnabled(enabled);
         }
 
         @Override
         public boolean isCABCEnabled() {
+            if (mConfig == null) {
+                return false;
+            }
             return mDHC.isCABCEnabled();
         }
 
@@ -290,11 +499,17 @@ public class LiveDisplayService extends LineageSystemService {
         public boolean setCABCEnabled(boolean enabled) {
             mContext.enforceCallingOrSelfPermission(
                     lineageos.platform.Manifest.permission.MANAGE_LIVEDISPLAY, null);
+            if (mConfig == null) {
+                return false;
+            }
             return mDHC.setCABCEnabled(enabled);
         }
 
         @Override
         public boolean isColorEnhancementEnabled() {
+            if (mConfig == null) {
+                return false;
+            }
             return mDHC.isColorEnhancementEnabled();
         }
 
@@ -302,11 +517,17 @@ public class LiveDisplayService extends LineageSystemService {
         public boolean setColorEnhancementEnabled(boolean enabled) {
             mContext.enforceCallingOrSelfPermission(
                     lineageos.platform.Manifest.permission.MANAGE_LIVEDISPLAY, null);
+            if (mConfig == null) {
+                return false;
+            }
             return mDHC.setColorEnhancementEnabled(enabled);
         }
 
         @Override
         public boolean isAutomaticOutdoorModeEnabled() {
+            if (mConfig == null) {
+                return false;
+            }
             return mOMC.isAutomaticOutdoorModeEnabled();
         }
 
@@ -314,11 +535,17 @@ public class LiveDisplayService extends LineageSystemService {
         public boolean setAutomaticOutdoorModeEnabled(boolean enabled) {
             mContext.enforceCallingOrSelfPermission(
                     lineageos.platform.Manifest.permission.MANAGE_LIVEDISPLAY, null);
+            if (mConfig == null) {
+                return false;
+            }
             return mOMC.setAutomaticOutdoorModeEnabled(enabled);
         }
 
         @Override
         public int getDayColorTemperature() {
+            if (mConfig == null) {
+                return -1;
+            }
             return mCTC.getDayColorTemperature();
         }
 
@@ -326,12 +553,18 @@ public class LiveDisplayService extends LineageSystemService {
         public boolean setDayColorTemperature(int temperature) {
             mContext.enforceCallingOrSelfPermission(
                     lineageos.platform.Manifest.permission.MANAGE_LIVEDISPLAY, null);
+            if (mConfig == null) {
+                return false;
+            }
             mCTC.setDayColorTemperature(temperature);
             return true;
         }
 
         @Override
         public int getNightColorTemperature() {
+            if (mConfig == null) {
+                return -1;
+            }
             return mCTC.getNightColorTemperature();
         }
 
@@ -339,23 +572,44 @@ public class LiveDisplayService extends LineageSystemService {
         public boolean setNightColorTemperature(int temperature) {
             mContext.enforceCallingOrSelfPermission(
                     lineageos.platform.Manifest.permission.MANAGE_LIVEDISPLAY, null);
+            if (mConfig == null) {
+                return false;
+            }
             mCTC.setNightColorTemperature(temperature);
             return true;
         }
 
         @Override
         public int getColorTemperature() {
+            if (mConfig == null) {
+                return -1;
+            }
             return mCTC.getColorTemperature();
         }
 
         @Override
-        public HSIC getPictureAdjustment() { return mPAC.getPictureAdjustment(); }
+        public HSIC getPictureAdjustment() {
+            if (mConfig == null) {
+                return null;
+            }
+            return mPAC.getPictureAdjustment();
+        }
 
         @Override
-        public boolean setPictureAdjustment(final HSIC hsic) { return mPAC.setPictureAdjustment(hsic); }
+        public boolean setPictureAdjustment(final HSIC hsic) {
+            if (mConfig == null) {
+                return false;
+            }
+            return mPAC.setPictureAdjustment(hsic);
+        }
 
         @Override
-        public HSIC getDefaultPictureAdjustment() { return mPAC.getDefaultPictureAdjustment(); }
+        public HSIC getDefaultPictureAdjustment() {
+            if (mConfig == null) {
+                return null;
+            }
+            return mPAC.getDefaultPictureAdjustment();
+        }
 
         @Override
         public void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
@@ -364,11 +618,15 @@ public class LiveDisplayService extends LineageSystemService {
             pw.println();
             pw.println("LiveDisplay Service State:");
             pw.println("  mState=" + mState.toString());
-            pw.println("  mConfig=" + mConfig.toString());
+            pw.println("  mConfig=" + mConfig);
             pw.println("  mAwaitingNudge=" + mAwaitingNudge);
+            pw.println("  mHalDiscoveryTime=" + mHalDiscoveryTime + "ms");
+            LineageHardwareManager.getInstance(mContext).dumpHIDLServices(pw, "  ");
+            mTwilightTracker.dump(pw);
 
-            for (int i = 0; i < mFeatures.size(); i++) {
-                mFeatures.get(i).dump(pw);
+            final List<LiveDisplayFeature> features = mFeatures;
+            for (int i = 0; i < features.size(); i++) {
+                features.get(i).dump(pw);
             }
         }
 
@@ -380,6 +638,9 @@ public class LiveDisplayService extends LineageSystemService {
 
         @Override
         public boolean isAntiFlickerEnabled() {
+            if (mConfig == null) {
+                return false;
+            }
             return mDHC.isAntiFlickerEnabled();
         }
 
@@ -387,8 +648,54 @@ public class LiveDisplayService extends LineageSystemService {
         public boolean setAntiFlickerEnabled(boolean enabled) {
             mContext.enforceCallingOrSelfPermission(
                     lineageos.platform.Manifest.permission.MANAGE_LIVEDISPLAY, null);
+            if (mConfig == null) {
+                return false;
+            }
             return mDHC.setAntiFlickerEnabled(enabled);
         }
+
+        @Override
+        public LiveDisplayState getState() {
+            return LiveDisplayService.this.getState();
+        }
+
+        @Override
+        public boolean setState(LiveDisplayState state) {
+            mContext.enforceCallingOrSelfPermission(
+                    lineageos.platform.Manifest.permission.MANAGE_LIVEDISPLAY, null);
+            if (state == null) {
+                return false;
+            }
+            return LiveDisplayService.this.setState(state);
+        }
+
+        @Override
+        public void registerStateListener(final ILiveDisplayStateListener listener) {
+            if (listener == null || !mStateListeners.register(listener)) {
+                return;
+            }
+            // Deliver the current state to the new listener
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mConfig == null) {
+                        return;
+                    }
+                    try {
+                        listener.onStateChanged(LiveDisplayService.this.getState());
+                    } catch (RemoteException e) {
+                        mStateListeners.unregister(listener);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void unregisterStateListener(ILiveDisplayStateListener listener) {
+            if (listener != null) {
+                mStateListeners.unregister(listener);
+            }
+        }
     };
 
     // Listener for screen on/off events
@@ -423,7 +730,7 @@ public class LiveDisplayService extends LineageSystemService {
             final boolean lowPowerMode = state.globalBatterySaverEnabled;
             if (lowPowerMode != mState.mLowPowerMode) {
                 mState.mLowPowerMode = lowPowerMode;
-                updateFeatures(MODE_CHANGED);
+                updateFeatures(LOW_POWER_CHANGED);
             }
          }
 
@@ -439,9 +746,14 @@ public class LiveDisplayService extends LineageSystemService {
         private final Uri MODE_SETTING =
                 LineageSettings.System.getUriFor(LineageSettings.System.DISPLAY_TEMPERATURE_MODE);
 
-        ModeObserver(Handler handler) {
+        // Not mConfig, which is only published after this is created
+        private final LiveDisplayConfig mConfig;
+
+        ModeObserver(Handler handler, LiveDisplayConfig config) {
             super(handler);
 
+            mConfig = config;
+
             final ContentResolver cr = mContext.getContentResolver();
             cr.registerContentObserver(MODE_SETTING, false, this, UserHandle.USER_ALL);
 
@@ -475,6 +787,36 @@ public class LiveDisplayService extends LineageSystemService {
         }
     }
 
+    // Push state changes to listeners when any LiveDisplay setting changes
+    private final class StateObserver extends UserContentObserver {
+
+        StateObserver(Handler handler) {
+            super(handler);
+
+            final ContentResolver cr = mContext.getContentResolver();
+            for (String setting : new String[] {
+                    LineageSettings.System.DISPLAY_TEMPERATURE_DAY,
+                    LineageSettings.System.DISPLAY_TEMPERATURE_NIGHT,
+                    LineageSettings.System.DISPLAY_AUTO_CONTRAST,
+                    LineageSettings.System.DISPLAY_AUTO_OUTDOOR_MODE,
+                    LineageSettings.System.DISPLAY_CABC,
+                    LineageSettings.System.DISPLAY_COLOR_ADJUSTMENT,
+                    LineageSettings.System.DISPLAY_COLOR_ENHANCE,
+                    LineageSettings.System.DISPLAY_ANTI_FLICKER,
+                    LineageSettings.System.DISPLAY_PICTURE_ADJUSTMENT }) {
+                cr.registerContentObserver(LineageSettings.System.getUriFor(setting),
+                        false, this, UserHandle.USER_ALL);
+            }
+
+            observe();
+        }
+
+        @Override
+        protected void update() {
+            notifyStateChanged();
+        }
+    }
+
     // Night watchman
     private final TwilightListener mTwilightListener = new TwilightListener() {
         @Override
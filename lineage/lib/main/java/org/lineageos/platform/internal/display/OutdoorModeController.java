@@ -19,6 +19,10 @@ package org.lineageos.platform.internal.display;
 import static lineageos.hardware.LiveDisplayManager.MODE_AUTO;
 import static lineageos.hardware.LiveDisplayManager.MODE_DAY;
 import static lineageos.hardware.LiveDisplayManager.MODE_OUTDOOR;
+import static org.lineageos.platform.internal.display.LiveDisplayService.DISPLAY_CHANGED;
+import static org.lineageos.platform.internal.display.LiveDisplayService.LOW_POWER_CHANGED;
+import static org.lineageos.platform.internal.display.LiveDisplayService.MODE_CHANGED;
+import static org.lineageos.platform.internal.display.LiveDisplayService.TWILIGHT_CHANGED;
 
 import android.content.Context;
 import android.net.Uri;
@@ -92,6 +96,11 @@ public class OutdoorModeController extends LiveDisplayFeature {
         updateOutdoorMode();
     }
 
+    @Override
+    protected int getUpdateFlags() {
+        return DISPLAY_CHANGED | LOW_POWER_CHANGED | MODE_CHANGED | TWILIGHT_CHANGED;
+    }
+
     @Override
     protected void onTwilightUpdated() {
         updateOutdoorMode();
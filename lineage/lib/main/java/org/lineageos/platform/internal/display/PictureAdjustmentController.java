@@ -34,6 +34,8 @@ import lineageos.hardware.HSIC;
 import lineageos.hardware.LiveDisplayManager;
 import lineageos.providers.LineageSettings;
 
+import static org.lineageos.platform.internal.display.LiveDisplayService.MODE_CHANGED;
+
 public class PictureAdjustmentController extends LiveDisplayFeature {
 
     private static final String TAG = "LiveDisplay-PAC";
@@ -92,6 +94,11 @@ public class PictureAdjustmentController extends LiveDisplayFeature {
         updatePictureAdjustment();
     }
 
+    @Override
+    protected int getUpdateFlags() {
+        return MODE_CHANGED;
+    }
+
     private void updatePictureAdjustment() {
         if (mUsePictureAdjustment && isScreenOn()) {
             final HSIC hsic = getPictureAdjustment();
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.platform.internal.display;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Small cache of sunrise and sunset times in front of {@link TwilightCalculator}.
+ *
+ * Entries are keyed by solar day and by coordinates rounded to a hundredth of a
+ * degree, and are always calculated for solar noon of that day and the rounded
+ * coordinates, so every lookup with the same key yields exactly the same times.
+ * Only the day or night state depends on the exact time of the lookup.
+ */
+final class SolarEphemerisCache {
+    private static final int MAX_ENTRIES = 8;
+    // Roughly a kilometer, which moves sunset by a few seconds at most
+    private static final double COORDINATE_STEP = 0.01;
+
+    private final TwilightCalculator mCalculator = new TwilightCalculator();
+
+    private final long[] mKeys = new long[MAX_ENTRIES];
+    private final long[] mSunrises = new long[MAX_ENTRIES];
+    private final long[] mSunsets = new long[MAX_ENTRIES];
+    private final int[] mStates = new int[MAX_ENTRIES];
+    private int mSize;
+    private int mNext;
+
+    private int mHits;
+    private int mMisses;
+
+    /** Time of sunset (civil twilight) in milliseconds or -1 if the day or night never ends */
+    public long mSunset;
+
+    /** Time of sunrise (civil twilight) in milliseconds or -1 if the day or night never ends */
+    public long mSunrise;
+
+    /** Current state, {@link TwilightCalculator#DAY} or {@link TwilightCalculator#NIGHT} */
+    public int mState;
+
+    SolarEphemerisCache() {
+        Arrays.fill(mKeys, Long.MIN_VALUE);
+    }
+
+    /**
+     * Same as {@link TwilightCalculator#calculateTwilight(long, double, double)},
+     * but only calculates once per solar day and place.
+     */
+    public void calculateTwilight(long time, double latitude, double longitude) {
+        final int lat = (int) Math.round(latitude / COORDINATE_STEP);
+        final int lng = (int) Math.round(longitude / COORDINATE_STEP);
+        final long day = TwilightCalculator.getSolarDay(time, lng * COORDINATE_STEP);
+        final long key = (day << 32) | ((long) (lat + 9000) << 16) | (lng + 18000);
+
+        int index = indexOf(key);
+        if (index >= 0) {
+            mHits++;
+        } else {
+            mMisses++;
+            index = mNext;
+            mNext = (mNext + 1) % MAX_ENTRIES;
+            mSize = Math.min(mSize + 1, MAX_ENTRIES);
+
+            final double roundedLng = lng * COORDINATE_STEP;
+            mCalculator.calculateTwilight(TwilightCalculator.getSolarNoon(day, roundedLng),
+                    lat * COORDINATE_STEP, roundedLng);
+            mKeys[index] = key;
+            mSunrises[index] = mCalculator.mSunrise;
+            mSunsets[index] = mCalculator.mSunset;
+            mStates[index] = mCalculator.mState;
+        }
+
+        mSunrise = mSunrises[index];
+        mSunset = mSunsets[index];
+        if (mSunrise == -1 || mSunset == -1) {
+            // The day or night never ends, which doesn't depend on the time of day
+            mState = mStates[index];
+        } else {
+            mState = mSunrise < time && mSunset > time
+                    ? TwilightCalculator.DAY : TwilightCalculator.NIGHT;
+        }
+    }
+
+    private int indexOf(long key) {
+        for (int i = 0; i < mSize; i++) {
+            if (mKeys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    void dump(PrintWriter pw) {
+        pw.println("  SolarEphemerisCache: size=" + mSize + " hits=" + mHits
+                + " misses=" + mMisses);
+    }
+}
@@ -61,6 +61,28 @@ public class TwilightCalculator {
     /** Current state */
     public int mState;
 
+    /**
+     * Returns the number of the solar day since 2000 that
+     * {@link #calculateTwilight(long, double, double)} uses for the given time and place.
+     *
+     * @param time time in milliseconds.
+     * @param longitude longitude in degrees.
+     */
+    public static long getSolarDay(long time, double longitude) {
+        final float daysSince2000 = (float) (time - UTC_2000) / DateUtils.DAY_IN_MILLIS;
+        return Math.round(daysSince2000 - J0 + longitude / 360);
+    }
+
+    /**
+     * Returns the approximate time of solar noon of the given solar day.
+     *
+     * @param solarDay solar day as returned by {@link #getSolarDay(long, double)}.
+     * @param longitude longitude in degrees.
+     */
+    public static long getSolarNoon(long solarDay, double longitude) {
+        return Math.round((solarDay + J0 - longitude / 360) * DateUtils.DAY_IN_MILLIS) + UTC_2000;
+    }
+
     /**
      * calculates the civil twilight bases on time and geo-coordinates.
      *
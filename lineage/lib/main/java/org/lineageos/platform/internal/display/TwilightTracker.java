@@ -28,17 +28,25 @@ import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
 import android.os.Bundle;
+import android.os.Environment;
 import android.os.Handler;
 import android.os.Message;
 import android.os.SystemClock;
 import android.text.format.DateUtils;
 import android.text.format.Time;
+import android.util.AtomicFile;
 import android.util.Slog;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
 import java.util.Objects;
 
 /**
@@ -53,6 +61,11 @@ public final class TwilightTracker {
     private static final String ACTION_UPDATE_TWILIGHT_STATE =
             "lineageos.platform.intent.action.UPDATE_TWILIGHT_STATE";
 
+    private static final int LOCATION_FILE_VERSION = 1;
+    private static final String PROVIDER_RESTORED = "restored";
+    // Only keep as much precision as the ephemeris cache uses
+    private static final double LOCATION_FILE_PRECISION = 100.0;
+
     private final Object mLock = new Object();
 
     private final AlarmManager mAlarmManager;
@@ -65,6 +78,9 @@ public final class TwilightTracker {
     private TwilightState mTwilightState;
 
     private final Context mContext;
+    private final PendingIntent mUpdatePendingIntent;
+    private final AtomicFile mLocationFile = new AtomicFile(
+            new File(Environment.getDataSystemDirectory(), "twilight_location"));
 
     public TwilightTracker(Context context) {
         mContext = context;
@@ -73,11 +89,14 @@ public final class TwilightTracker {
         mLocationManager = (LocationManager) contextTag.getSystemService(
                 Context.LOCATION_SERVICE);
         mLocationHandler = new LocationHandler();
+        mUpdatePendingIntent = PendingIntent.getBroadcast(mContext, 0,
+                new Intent(ACTION_UPDATE_TWILIGHT_STATE), PendingIntent.FLAG_IMMUTABLE);
 
         IntentFilter filter = new IntentFilter(Intent.ACTION_AIRPLANE_MODE_CHANGED);
         filter.addAction(Intent.ACTION_TIME_CHANGED);
         filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
         filter.addAction(ACTION_UPDATE_TWILIGHT_STATE);
+        filter.addAction(LocationManager.MODE_CHANGED_ACTION);
         mContext.registerReceiver(mUpdateLocationReceiver, filter);
     }
 
@@ -108,6 +127,100 @@ public final class TwilightTracker {
     }
 
 
+    /**
+     * Restores the location saved before the last reboot and calculates the
+     * twilight state for it right away, so that callers don't have to wait
+     * for a location fix to know whether it is night. Nothing is restored, and
+     * the saved location is deleted, if location has been turned off since.
+     */
+    public void restoreState() {
+        if (!mLocationManager.isLocationEnabled()) {
+            mLocationHandler.checkLocationEnabled();
+            return;
+        }
+        final Location location = readLocation();
+        if (location == null) {
+            return;
+        }
+        setTwilightState(calculateTwilightState(new SolarEphemerisCache(),
+                System.currentTimeMillis(), location));
+        mLocationHandler.restoreLocation(location);
+    }
+
+    private Location readLocation() {
+        try (DataInputStream in = new DataInputStream(mLocationFile.openRead())) {
+            if (in.readInt() != LOCATION_FILE_VERSION) {
+                return null;
+            }
+            final Location location = new Location(PROVIDER_RESTORED);
+            location.setLatitude(in.readDouble());
+            location.setLongitude(in.readDouble());
+            location.setAccuracy(in.readFloat());
+            location.setTime(in.readLong());
+            // Carry the age of the location over into this boot's timebase
+            location.setElapsedRealtimeNanos(SystemClock.elapsedRealtimeNanos()
+                    - Math.max(0, System.currentTimeMillis() - location.getTime()) * 1000000);
+            return location;
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Slog.w(TAG, "Failed to read saved location", e);
+            return null;
+        }
+    }
+
+    private boolean writeLocation(Location location) {
+        FileOutputStream fos = null;
+        try {
+            fos = mLocationFile.startWrite();
+            final DataOutputStream out = new DataOutputStream(fos);
+            out.writeInt(LOCATION_FILE_VERSION);
+            out.writeDouble(Math.round(location.getLatitude() * LOCATION_FILE_PRECISION)
+                    / LOCATION_FILE_PRECISION);
+            out.writeDouble(Math.round(location.getLongitude() * LOCATION_FILE_PRECISION)
+                    / LOCATION_FILE_PRECISION);
+            out.writeFloat(location.getAccuracy());
+            out.writeLong(location.getTime());
+            out.flush();
+            mLocationFile.finishWrite(fos);
+            return true;
+        } catch (IOException e) {
+            Slog.w(TAG, "Failed to save location", e);
+            mLocationFile.failWrite(fos);
+            return false;
+        }
+    }
+
+    private static TwilightState calculateTwilightState(SolarEphemerisCache calculator,
+            long now, Location location) {
+        // calculate yesterday's twilight
+        calculator.calculateTwilight(now - DateUtils.DAY_IN_MILLIS,
+                location.getLatitude(), location.getLongitude());
+        final long yesterdaySunset = calculator.mSunset;
+
+        // calculate today's twilight
+        calculator.calculateTwilight(now,
+                location.getLatitude(), location.getLongitude());
+        final boolean isNight = (calculator.mState == TwilightCalculator.NIGHT);
+        final long todaySunrise = calculator.mSunrise;
+        final long todaySunset = calculator.mSunset;
+
+        // calculate tomorrow's twilight
+        calculator.calculateTwilight(now + DateUtils.DAY_IN_MILLIS,
+                location.getLatitude(), location.getLongitude());
+        final long tomorrowSunrise = calculator.mSunrise;
+
+        return new TwilightState(isNight, yesterdaySunset,
+                todaySunrise, todaySunset, tomorrowSunrise);
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println();
+        pw.println("TwilightTracker State:");
+        pw.println("  mTwilightState=" + getCurrentState());
+        mLocationHandler.dump(pw);
+    }
+
     private void setTwilightState(TwilightState state) {
         synchronized (mLock) {
             if (!Objects.equals(mTwilightState, state)) {
@@ -156,6 +269,7 @@ public final class TwilightTracker {
         private static final int MSG_GET_NEW_LOCATION_UPDATE = 2;
         private static final int MSG_PROCESS_NEW_LOCATION = 3;
         private static final int MSG_DO_TWILIGHT_UPDATE = 4;
+        private static final int MSG_CHECK_LOCATION_ENABLED = 5;
 
         private static final long LOCATION_UPDATE_MS = 24 * DateUtils.HOUR_IN_MILLIS;
         private static final long MIN_LOCATION_UPDATE_MS = 30 * DateUtils.MINUTE_IN_MILLIS;
@@ -165,14 +279,31 @@ public final class TwilightTracker {
                 15 * DateUtils.MINUTE_IN_MILLIS;
         private static final double FACTOR_GMT_OFFSET_LONGITUDE =
                 1000.0 * 360.0 / DateUtils.DAY_IN_MILLIS;
+        private static final String PROVIDER_ESTIMATE = "fake";
+        // Asking these for their last location doesn't wake up anything
+        private static final String[] LAST_KNOWN_PROVIDERS = {
+            LocationManager.FUSED_PROVIDER,
+            LocationManager.PASSIVE_PROVIDER
+        };
 
         private boolean mPassiveListenerEnabled;
         private boolean mNetworkListenerEnabled;
-        private boolean mDidFirstInit;
         private long mLastNetworkRegisterTime = -MIN_LOCATION_UPDATE_MS;
         private long mLastUpdateInterval;
         private Location mLocation;
-        private final TwilightCalculator mTwilightCalculator = new TwilightCalculator();
+        private long mNextUpdate;
+
+        // What the location file holds, in LOCATION_FILE_PRECISION steps
+        private long mSavedLatitude;
+        private long mSavedLongitude;
+        private long mSavedTime = -LOCATION_UPDATE_MS;
+
+        // Counters for dumpsys
+        private int mLocationRequests;
+        private int mLocationRequestsAvoided;
+        private int mLastKnownLocationsUsed;
+        private int mLocationWrites;
+        private final SolarEphemerisCache mTwilightCalculator = new SolarEphemerisCache();
 
         public void processNewLocation(Location location) {
             Message msg = obtainMessage(MSG_PROCESS_NEW_LOCATION, location);
@@ -191,29 +322,25 @@ public final class TwilightTracker {
             sendEmptyMessage(MSG_DO_TWILIGHT_UPDATE);
         }
 
+        public void checkLocationEnabled() {
+            sendEmptyMessage(MSG_CHECK_LOCATION_ENABLED);
+        }
+
         @Override
         public void handleMessage(Message msg) {
             switch (msg.what) {
-                case MSG_PROCESS_NEW_LOCATION: {
-                    final Location location = (Location) msg.obj;
-                    final boolean hasMoved = hasMoved(mLocation, location);
-                    final boolean hasBetterAccuracy = mLocation == null
-                            || location.getAccuracy() < mLocation.getAccuracy();
-                    if (DEBUG) {
-                        Slog.d(TAG, "Processing new location: " + location
-                                + ", hasMoved=" + hasMoved
-                                + ", hasBetterAccuracy=" + hasBetterAccuracy);
-                    }
-                    if (hasMoved || hasBetterAccuracy) {
-                        setLocation(location);
+                case MSG_PROCESS_NEW_LOCATION:
+                    processLocation((Location) msg.obj);
+                    if (mNetworkListenerEnabled && getLocationAge() < LOCATION_UPDATE_MS) {
+                        // Got a fix, the network provider is not needed anymore for today
+                        enableLocationUpdates();
                     }
                     break;
-                }
 
                 case MSG_GET_NEW_LOCATION_UPDATE:
                     if (!mNetworkListenerEnabled) {
-                        // Don't do anything -- we are still trying to get a
-                        // location.
+                        // Don't do anything -- we are either still trying to get a
+                        // location or don't need an active one.
                         return;
                     }
                     if ((mLastNetworkRegisterTime + MIN_LOCATION_UPDATE_MS) >=
@@ -230,33 +357,10 @@ public final class TwilightTracker {
 
                     // Fall through to re-register listener.
                 case MSG_ENABLE_LOCATION_UPDATES:
-                    // enable network provider to receive at least location updates for a given
-                    // distance.
-                    boolean networkLocationEnabled;
-                    try {
-                        networkLocationEnabled =
-                                mLocationManager.isProviderEnabled(LocationManager.NETWORK_PROVIDER);
-                    } catch (Exception e) {
-                        // we may get IllegalArgumentException if network location provider
-                        // does not exist or is not yet installed.
-                        networkLocationEnabled = false;
-                    }
-                    if (!mNetworkListenerEnabled && networkLocationEnabled) {
-                        mNetworkListenerEnabled = true;
-                        mLastNetworkRegisterTime = SystemClock.elapsedRealtime();
-                        mLocationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER,
-                                LOCATION_UPDATE_MS, 0, mEmptyLocationListener);
-
-                        if (!mDidFirstInit) {
-                            mDidFirstInit = true;
-                            if (mLocation == null) {
-                                retrieveLocation();
-                            }
-                        }
-                    }
+                    removeMessages(MSG_ENABLE_LOCATION_UPDATES);
 
                     // enable passive provider to receive updates from location fixes (gps
-                    // and network).
+                    // and network) that others asked for.
                     boolean passiveLocationEnabled;
                     try {
                         passiveLocationEnabled =
@@ -273,6 +377,45 @@ public final class TwilightTracker {
                                 0, LOCATION_UPDATE_DISTANCE_METER, mLocationListener);
                     }
 
+                    // Sunset only moves by minutes over hundreds of kilometers, so a location
+                    // someone else already obtained today is as good as a new one.
+                    final Location lastKnownLocation = getLastKnownLocation();
+                    if (lastKnownLocation != null) {
+                        mLastKnownLocationsUsed++;
+                        processLocation(lastKnownLocation);
+                    }
+                    final long locationAge = getLocationAge();
+                    if (locationAge < LOCATION_UPDATE_MS) {
+                        mLocationRequestsAvoided++;
+                        if (mNetworkListenerEnabled) {
+                            mNetworkListenerEnabled = false;
+                            mLocationManager.removeUpdates(mEmptyLocationListener);
+                        }
+                        mLastUpdateInterval = 0;
+                        // Look again once today's location gets stale
+                        sendEmptyMessageDelayed(MSG_ENABLE_LOCATION_UPDATES,
+                                LOCATION_UPDATE_MS - locationAge);
+                        break;
+                    }
+
+                    // This day's location is unknown, ask the network provider for one.
+                    boolean networkLocationEnabled;
+                    try {
+                        networkLocationEnabled =
+                                mLocationManager.isProviderEnabled(LocationManager.NETWORK_PROVIDER);
+                    } catch (Exception e) {
+                        // we may get IllegalArgumentException if network location provider
+                        // does not exist or is not yet installed.
+                        networkLocationEnabled = false;
+                    }
+                    if (!mNetworkListenerEnabled && networkLocationEnabled) {
+                        mNetworkListenerEnabled = true;
+                        mLocationRequests++;
+                        mLastNetworkRegisterTime = SystemClock.elapsedRealtime();
+                        mLocationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER,
+                                LOCATION_UPDATE_MS, 0, mEmptyLocationListener);
+                    }
+
                     if (!(mNetworkListenerEnabled && mPassiveListenerEnabled)) {
                         mLastUpdateInterval *= 1.5;
                         if (mLastUpdateInterval == 0) {
@@ -283,9 +426,10 @@ public final class TwilightTracker {
                         sendEmptyMessageDelayed(MSG_ENABLE_LOCATION_UPDATES, mLastUpdateInterval);
                     }
 
-                    if (!networkLocationEnabled && mLocation == null) {
+                    // Use a location estimated from the timezone until a fix arrives
+                    if (mLocation == null) {
                         if (DEBUG) {
-                            Slog.d(TAG, "Network location unavailable");
+                            Slog.d(TAG, "No location available yet");
                         }
                         retrieveLocation();
                     }
@@ -294,14 +438,61 @@ public final class TwilightTracker {
                 case MSG_DO_TWILIGHT_UPDATE:
                     updateTwilightState();
                     break;
+
+                case MSG_CHECK_LOCATION_ENABLED:
+                    if (!mLocationManager.isLocationEnabled()) {
+                        deleteLocation();
+                    }
+                    break;
             }
         }
 
+        private void processLocation(Location location) {
+            final boolean hasMoved = hasMoved(mLocation, location);
+            final boolean hasBetterAccuracy = mLocation == null
+                    || location.getAccuracy() < mLocation.getAccuracy();
+            final boolean isNewer = mLocation == null
+                    || location.getElapsedRealtimeNanos() > mLocation.getElapsedRealtimeNanos();
+            if (DEBUG) {
+                Slog.d(TAG, "Processing new location: " + location
+                        + ", hasMoved=" + hasMoved
+                        + ", hasBetterAccuracy=" + hasBetterAccuracy);
+            }
+            if (hasMoved || hasBetterAccuracy) {
+                setLocation(location);
+            } else if (isNewer && !isEstimated(mLocation)) {
+                // Same place, but keep track of how recent our knowledge of it is
+                mLocation = location;
+                saveLocation();
+            }
+        }
+
+        /**
+         * @return how long ago the current location was obtained, or Long.MAX_VALUE
+         *         if it is unknown or only estimated.
+         */
+        private long getLocationAge() {
+            if (mLocation == null || isEstimated(mLocation)) {
+                return Long.MAX_VALUE;
+            }
+            return (SystemClock.elapsedRealtimeNanos() - mLocation.getElapsedRealtimeNanos())
+                    / 1000000;
+        }
+
+        private boolean isEstimated(Location location) {
+            return PROVIDER_ESTIMATE.equals(location.getProvider());
+        }
+
         private Location getLastKnownLocation() {
-            List<String> providers = mLocationManager.getAllProviders();
             Location bestLocation = null;
-            for (String provider : providers) {
-                Location lastKnownLocation = mLocationManager.getLastKnownLocation(provider);
+            for (String provider : LAST_KNOWN_PROVIDERS) {
+                Location lastKnownLocation;
+                try {
+                    lastKnownLocation = mLocationManager.getLastKnownLocation(provider);
+                } catch (Exception e) {
+                    // The provider may not exist on this device
+                    lastKnownLocation = null;
+                }
                 if (lastKnownLocation != null) {
                     if (bestLocation == null ||
                             bestLocation.getElapsedRealtimeNanos() <
@@ -325,7 +516,7 @@ public final class TwilightTracker {
                 currentTime.set(System.currentTimeMillis());
                 double lngOffset = FACTOR_GMT_OFFSET_LONGITUDE *
                         (currentTime.gmtoff - (currentTime.isDst > 0 ? 3600 : 0));
-                location = new Location("fake");
+                location = new Location(PROVIDER_ESTIMATE);
                 location.setLongitude(lngOffset);
                 location.setLatitude(0);
                 location.setAccuracy(417000.0f);
@@ -343,6 +534,59 @@ public final class TwilightTracker {
         private void setLocation(Location location) {
             mLocation = location;
             updateTwilightState();
+            saveLocation();
+        }
+
+        /**
+         * Writes the location file when the saved place differs from the current one,
+         * or when the saved fix got older than a location update interval. Skipping fixes
+         * of the same place in between only makes a restored location look older.
+         * Nothing is written while location is turned off.
+         */
+        private void saveLocation() {
+            if (isEstimated(mLocation) || PROVIDER_RESTORED.equals(mLocation.getProvider())
+                    || !mLocationManager.isLocationEnabled()) {
+                return;
+            }
+            final long latitude = Math.round(mLocation.getLatitude() * LOCATION_FILE_PRECISION);
+            final long longitude = Math.round(mLocation.getLongitude() * LOCATION_FILE_PRECISION);
+            final long time = mLocation.getTime();
+            if (latitude == mSavedLatitude && longitude == mSavedLongitude
+                    && time - mSavedTime < LOCATION_UPDATE_MS) {
+                return;
+            }
+            if (writeLocation(mLocation)) {
+                mLocationWrites++;
+                mSavedLatitude = latitude;
+                mSavedLongitude = longitude;
+                mSavedTime = time;
+            }
+        }
+
+        /**
+         * Deletes the location file, so that no location outlives the user turning
+         * location off.
+         */
+        private void deleteLocation() {
+            mLocationFile.delete();
+            mSavedTime = -LOCATION_UPDATE_MS;
+        }
+
+        public void restoreLocation(final Location location) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mLocation == null) {
+                        mSavedLatitude = Math.round(location.getLatitude()
+                                * LOCATION_FILE_PRECISION);
+                        mSavedLongitude = Math.round(location.getLongitude()
+                                * LOCATION_FILE_PRECISION);
+                        mSavedTime = location.getTime();
+                        mLocation = location;
+                        updateTwilightState();
+                    }
+                }
+            });
         }
 
         private void updateTwilightState() {
@@ -353,26 +597,12 @@ public final class TwilightTracker {
 
             final long now = System.currentTimeMillis();
 
-            // calculate yesterday's twilight
-            mTwilightCalculator.calculateTwilight(now - DateUtils.DAY_IN_MILLIS,
-                    mLocation.getLatitude(), mLocation.getLongitude());
-            final long yesterdaySunset = mTwilightCalculator.mSunset;
-
-            // calculate today's twilight
-            mTwilightCalculator.calculateTwilight(now,
-                    mLocation.getLatitude(), mLocation.getLongitude());
-            final boolean isNight = (mTwilightCalculator.mState == TwilightCalculator.NIGHT);
-            final long todaySunrise = mTwilightCalculator.mSunrise;
-            final long todaySunset = mTwilightCalculator.mSunset;
-
-            // calculate tomorrow's twilight
-            mTwilightCalculator.calculateTwilight(now + DateUtils.DAY_IN_MILLIS,
-                    mLocation.getLatitude(), mLocation.getLongitude());
-            final long tomorrowSunrise = mTwilightCalculator.mSunrise;
-
             // set twilight state
-            TwilightState state = new TwilightState(isNight, yesterdaySunset,
-                    todaySunrise, todaySunset, tomorrowSunrise);
+            final TwilightState state = calculateTwilightState(mTwilightCalculator, now,
+                    mLocation);
+            final long todaySunrise = state.getTodaySunrise();
+            final long todaySunset = state.getTodaySunset();
+            final long tomorrowSunrise = state.getTomorrowSunrise();
             if (DEBUG) {
                 Slog.d(TAG, "Updating twilight state: " + state);
             }
@@ -400,11 +630,24 @@ public final class TwilightTracker {
                 Slog.d(TAG, "Next update in " + (nextUpdate - now) + " ms");
             }
 
-            Intent updateIntent = new Intent(ACTION_UPDATE_TWILIGHT_STATE);
-            PendingIntent pendingIntent = PendingIntent.getBroadcast(
-                    mContext, 0, updateIntent, PendingIntent.FLAG_IMMUTABLE);
-            mAlarmManager.cancel(pendingIntent);
-            mAlarmManager.setExact(AlarmManager.RTC, nextUpdate, pendingIntent);
+            // Repeated updates for the same day and place end up here with the same time
+            if (nextUpdate == mNextUpdate && nextUpdate > now) {
+                return;
+            }
+            mNextUpdate = nextUpdate;
+            mAlarmManager.setExact(AlarmManager.RTC, nextUpdate, mUpdatePendingIntent);
+        }
+
+        void dump(PrintWriter pw) {
+            pw.println("  mLocation=" + mLocation);
+            pw.println("  mNetworkListenerEnabled=" + mNetworkListenerEnabled);
+            pw.println("  mPassiveListenerEnabled=" + mPassiveListenerEnabled);
+            pw.println("  mLocationRequests=" + mLocationRequests);
+            pw.println("  mLocationRequestsAvoided=" + mLocationRequestsAvoided);
+            pw.println("  mLastKnownLocationsUsed=" + mLastKnownLocationsUsed);
+            pw.println("  mLocationWrites=" + mLocationWrites);
+            pw.println("  mNextUpdate=" + mNextUpdate);
+            mTwilightCalculator.dump(pw);
         }
     }
 
@@ -418,6 +661,11 @@ public final class TwilightTracker {
                 return;
             }
 
+            if (LocationManager.MODE_CHANGED_ACTION.equals(intent.getAction())) {
+                mLocationHandler.checkLocationEnabled();
+                return;
+            }
+
             // Time zone has changed or alarm expired.
             mLocationHandler.requestTwilightUpdate();
         }
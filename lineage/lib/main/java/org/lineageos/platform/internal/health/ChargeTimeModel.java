@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.platform.internal.health;
+
+import android.os.BatteryManager;
+import android.text.format.DateUtils;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Incremental model of how fast the battery charges.
+ *
+ * The time taken for each one percent step is learned per charger type and
+ * per band of battery level, using an exponentially weighted moving average.
+ * That is enough to predict the time to full without asking battery stats.
+ *
+ * Observations arrive on the handler thread, dump() may be called from any
+ * thread, so the learned values are only accessed with the model locked.
+ */
+final class ChargeTimeModel {
+    private static final String TAG = "LineageHealth";
+
+    private static final int FILE_VERSION = 1;
+
+    private static final int BAND_SIZE = 10;
+    private static final int NUM_BANDS = 100 / BAND_SIZE;
+    private static final int[] PLUG_TYPES = {
+        BatteryManager.BATTERY_PLUGGED_AC,
+        BatteryManager.BATTERY_PLUGGED_USB,
+        BatteryManager.BATTERY_PLUGGED_WIRELESS,
+        BatteryManager.BATTERY_PLUGGED_DOCK
+    };
+
+    // Weight of a new observation in the moving average
+    private static final float ALPHA = 0.2f;
+    // Observations needed in a band before it is used for predictions
+    private static final int MIN_SAMPLES = 3;
+    // Anything slower than this was not continuous charging
+    private static final long MAX_MS_PER_PERCENT = 30 * DateUtils.MINUTE_IN_MILLIS;
+
+    // Persist after this many new observations, so that a long session is not
+    // lost on reboot and devices which never see a disconnect still save
+    private static final int SAVE_INTERVAL = 10;
+
+    private final AtomicFile mFile;
+
+    private final float[] mMsPerPercent = new float[PLUG_TYPES.length * NUM_BANDS];
+    private final int[] mSamples = new int[PLUG_TYPES.length * NUM_BANDS];
+    private int mUnsavedSamples;
+
+    // Current measurement, reset whenever charging is interrupted
+    private int mLastLevel = -1;
+    private long mLastTime = -1;
+    private int mLastPlugType;
+
+    /**
+     * @param file where to persist the model, or null to keep it in memory only
+     */
+    ChargeTimeModel(File file) {
+        mFile = file != null ? new AtomicFile(file) : null;
+    }
+
+    /**
+     * Feed an observed battery level. Only changes of the level are useful,
+     * but repeated levels are ignored.
+     */
+    synchronized void onBatteryLevel(long elapsedRealtime, int level, int plugType) {
+        final int plugIndex = getPlugIndex(plugType);
+        if (plugIndex < 0 || level < 0 || level > 100) {
+            interrupt();
+            return;
+        }
+        if (mLastLevel >= 0 && plugType != mLastPlugType) {
+            interrupt();
+        }
+        if (level == mLastLevel) {
+            return;
+        }
+
+        // The first level seen may have been reached at any time before,
+        // so only start measuring at the first change after it
+        if (mLastLevel >= 0 && mLastTime >= 0 && level > mLastLevel) {
+            final long msPerPercent = (elapsedRealtime - mLastTime) / (level - mLastLevel);
+            if (msPerPercent > 0 && msPerPercent <= MAX_MS_PER_PERCENT) {
+                update(plugIndex, mLastLevel, msPerPercent);
+            }
+        }
+
+        mLastTime = mLastLevel >= 0 ? elapsedRealtime : -1;
+        mLastLevel = level;
+        mLastPlugType = plugType;
+    }
+
+    /**
+     * Charging was paused, stopped or the charger changed. The time until the
+     * next level change no longer says anything about the charging speed.
+     */
+    synchronized void interrupt() {
+        mLastLevel = -1;
+        mLastTime = -1;
+    }
+
+    /**
+     * @return predicted time to full in millis, or -1 if not enough data was seen
+     */
+    synchronized long predictTimeToFull(int level, int plugType) {
+        final int plugIndex = getPlugIndex(plugType);
+        if (plugIndex < 0 || level < 0) {
+            return -1;
+        }
+
+        long total = 0;
+        for (int pct = level; pct < 100; pct++) {
+            final int index = plugIndex * NUM_BANDS + pct / BAND_SIZE;
+            if (mSamples[index] < MIN_SAMPLES) {
+                return -1;
+            }
+            total += (long) mMsPerPercent[index];
+        }
+        return total;
+    }
+
+    private void update(int plugIndex, int level, long msPerPercent) {
+        final int index = plugIndex * NUM_BANDS + Math.min(level, 99) / BAND_SIZE;
+        if (mSamples[index] == 0) {
+            mMsPerPercent[index] = msPerPercent;
+        } else {
+            mMsPerPercent[index] += ALPHA * (msPerPercent - mMsPerPercent[index]);
+        }
+        if (mSamples[index] < Integer.MAX_VALUE) {
+            mSamples[index]++;
+        }
+        mUnsavedSamples++;
+    }
+
+    private static int getPlugIndex(int plugType) {
+        for (int i = 0; i < PLUG_TYPES.length; i++) {
+            if (PLUG_TYPES[i] == plugType) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    synchronized void load() {
+        if (mFile == null) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(mFile.openRead())) {
+            if (in.readInt() != FILE_VERSION || in.readInt() != mSamples.length) {
+                Log.w(TAG, "Discarding incompatible charge time model");
+                return;
+            }
+            for (int i = 0; i < mSamples.length; i++) {
+                mMsPerPercent[i] = in.readFloat();
+                mSamples[i] = in.readInt();
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing learned yet
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read charge time model", e);
+            Arrays.fill(mMsPerPercent, 0);
+            Arrays.fill(mSamples, 0);
+        }
+    }
+
+    /**
+     * Persist the model if enough was learned since it was last saved.
+     */
+    synchronized void saveIfNeeded() {
+        if (mUnsavedSamples >= SAVE_INTERVAL) {
+            saveIfDirty();
+        }
+    }
+
+    synchronized void saveIfDirty() {
+        if (mFile == null || mUnsavedSamples == 0) {
+            return;
+        }
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            final DataOutputStream out = new DataOutputStream(fos);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(mSamples.length);
+            for (int i = 0; i < mSamples.length; i++) {
+                out.writeFloat(mMsPerPercent[i]);
+                out.writeInt(mSamples[i]);
+            }
+            out.flush();
+            mFile.finishWrite(fos);
+            mUnsavedSamples = 0;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write charge time model", e);
+            mFile.failWrite(fos);
+        }
+    }
+
+    void dump(PrintWriter pw) {
+        final float[] msPerPercent;
+        final int[] samples;
+        final int unsavedSamples;
+        synchronized (this) {
+            msPerPercent = mMsPerPercent.clone();
+            samples = mSamples.clone();
+            unsavedSamples = mUnsavedSamples;
+        }
+
+        pw.println("  Charge time model (ms per percent, samples):");
+        for (int p = 0; p < PLUG_TYPES.length; p++) {
+            final StringBuilder sb = new StringBuilder();
+            sb.append("    plugType=").append(PLUG_TYPES[p]).append(":");
+            for (int b = 0; b < NUM_BANDS; b++) {
+                final int index = p * NUM_BANDS + b;
+                sb.append(" ").append((long) msPerPercent[index])
+                        .append("/").append(samples[index]);
+            }
+            pw.println(sb.toString());
+        }
+        pw.println("    unsaved samples: " + unsavedSamples);
+    }
+}
@@ -30,11 +30,10 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.net.Uri;
 import android.os.BatteryManager;
-import android.os.BatteryStatsManager;
-import android.os.BatteryUsageStats;
 import android.os.Handler;
+import android.os.RemoteCallbackList;
 import android.os.RemoteException;
-import android.os.ServiceManager;
+import android.os.SystemClock;
 import android.text.format.DateUtils;
 import android.util.Log;
 
@@ -50,11 +49,13 @@ import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Calendar;
+import java.util.Objects;
 
+import lineageos.health.ChargingControlState;
+import lineageos.health.IChargingControlStateListener;
 import lineageos.providers.LineageSettings;
 
 import vendor.lineage.health.ChargingControlSupportedMode;
-import vendor.lineage.health.IChargingControl;
 
 import static lineageos.health.HealthInterface.MODE_NONE;
 import static lineageos.health.HealthInterface.MODE_AUTO;
@@ -62,10 +63,12 @@ import static lineageos.health.HealthInterface.MODE_MANUAL;
 import static lineageos.health.HealthInterface.MODE_LIMIT;
 
 public class ChargingControlController extends LineageHealthFeature {
-    private final IChargingControl mChargingControl;
+    private final ChargingControlInjector mInjector;
+    private final ChargingControlInjector.Hal mChargingControl;
     private final ContentResolver mContentResolver;
     private ChargingControlNotification mChargingNotification;
     private LineageHealthBatteryBroadcastReceiver mBattReceiver;
+    private final ChargeTimeModel mChargeTimeModel;
 
     // Defaults
     private boolean mDefaultEnabled = false;
@@ -107,11 +110,38 @@ public class ChargingControlController extends LineageHealthFeature {
     private int mChargingTimeMargin;
     private int mChargingLimitMargin;
 
+    // Cached inputs, only refreshed when they may have changed
+    private int mPlugType = -1;
+    private long mNextAlarmTime = -1;
+    private long mChargeTimeRemaining = -1;
+    private float mChargeTimeRemainingPct = -1;
+    private long mChargeTimeRemainingElapsed;
+    private ChargeTime mLastChargeTime;
+
+    // Last values the HAL accepted, null or false when they have to be applied again
+    private Boolean mAppliedChargingEnabled;
+    private boolean mIsDeadlineCancelled;
+    private int mHalRetryCount;
+
+    private final HalCallStats mGetEnabledStats = new HalCallStats("getChargingEnabled");
+    private final HalCallStats mSetEnabledStats = new HalCallStats("setChargingEnabled");
+    private final HalCallStats mSetDeadlineStats = new HalCallStats("setChargingDeadline");
+
+    private final RemoteCallbackList<IChargingControlStateListener> mStateListeners =
+            new RemoteCallbackList<IChargingControlStateListener>();
+    // Last state delivered to listeners, only touched on the handler thread
+    private ChargingControlState mLastState;
+
     private static final DateTimeFormatter mFormatter = DateTimeFormatter.ofLocalizedTime(SHORT);
     private static final SimpleDateFormat mDateFormatter = new SimpleDateFormat("hh:mm:ss a");
 
     // Only when the battery level is above this limit will the charging control be activated.
     private static int CHARGE_CTRL_MIN_LEVEL = 80;
+    // Don't stop charging if we are more than this far away from the target alarm
+    private static final long CHARGE_CTRL_MAX_WAIT_TIME = 9 * DateUtils.HOUR_IN_MILLIS;
+    // Back off from a failing HAL, starting at this delay up to the maximum
+    private static final long HAL_RETRY_DELAY = 30 * DateUtils.SECOND_IN_MILLIS;
+    private static final long HAL_RETRY_MAX_DELAY = 30 * DateUtils.MINUTE_IN_MILLIS;
     private static final String INTENT_PARTS =
             "org.lineageos.lineageparts.CHARGING_CONTROL_SETTINGS";
 
@@ -138,12 +168,17 @@ public class ChargingControlController extends LineageHealthFeature {
     }
 
     public ChargingControlController(Context context, Handler handler) {
+        this(context, handler, new ChargingControlInjector(context));
+    }
+
+    ChargingControlController(Context context, Handler handler,
+            ChargingControlInjector injector) {
         super(context, handler);
 
+        mInjector = injector;
         mContentResolver = mContext.getContentResolver();
-        mChargingControl = IChargingControl.Stub.asInterface(
-                ServiceManager.waitForDeclaredService(
-                        IChargingControl.DESCRIPTOR + "/default"));
+        mChargeTimeModel = new ChargeTimeModel(mInjector.getChargeTimeModelFile());
+        mChargingControl = mInjector.getHal();
 
         if (mChargingControl == null) {
             Log.i(TAG, "Lineage Health HAL not found");
@@ -254,6 +289,64 @@ public class ChargingControlController extends LineageHealthFeature {
                 && setStartTime(mDefaultStartTime) && setTargetTime(mDefaultTargetTime);
     }
 
+    public ChargingControlState getState() {
+        return new ChargingControlState(mConfigEnabled, mConfigMode, mConfigStartTime,
+                mConfigTargetTime, mConfigLimit, mChargingStopReason);
+    }
+
+    public void registerStateListener(final IChargingControlStateListener listener) {
+        if (listener == null || !mStateListeners.register(listener)) {
+            return;
+        }
+        // Deliver the current state to the new listener
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    listener.onStateChanged(getState());
+                } catch (RemoteException e) {
+                    mStateListeners.unregister(listener);
+                }
+            }
+        });
+    }
+
+    public void unregisterStateListener(IChargingControlStateListener listener) {
+        if (listener != null) {
+            mStateListeners.unregister(listener);
+        }
+    }
+
+    private void notifyStateChanged() {
+        mHandler.removeCallbacks(mNotifyStateRunnable);
+        mHandler.post(mNotifyStateRunnable);
+    }
+
+    private final Runnable mNotifyStateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mStateListeners.getRegisteredCallbackCount() == 0) {
+                mLastState = null;
+                return;
+            }
+            final ChargingControlState state = getState();
+            if (state.equals(mLastState)) {
+                return;
+            }
+            mLastState = state;
+
+            int i = mStateListeners.beginBroadcast();
+            while (i-- > 0) {
+                try {
+                    mStateListeners.getBroadcastItem(i).onStateChanged(state);
+                } catch (RemoteException e) {
+                    // The RemoteCallbackList will take care of removing the dead object
+                }
+            }
+            mStateListeners.finishBroadcast();
+        }
+    };
+
     public boolean isChargingModeSupported(int mode) {
         try {
             return isSupported() && (mChargingControl.getSupportedMode() & mode) != 0;
@@ -268,14 +361,24 @@ public class ChargingControlController extends LineageHealthFeature {
             return;
         }
 
+        mChargeTimeModel.load();
+
         // Register setting observer
         registerSettings(MODE_URI, LIMIT_URI, ENABLED_URI, START_TIME_URI, TARGET_TIME_URI);
 
+        // Only look up the next alarm again when it changes
+        IntentFilter alarmFilter = new IntentFilter(AlarmManager.ACTION_NEXT_ALARM_CLOCK_CHANGED);
+        mContext.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                onNextAlarmChanged();
+            }
+        }, alarmFilter, null, mHandler);
+
         // For devices that do not support bypass, we can only always listen to battery change
         // because we can't distinguish between "unplugged" and "plugged in but not charging".
         if (mIsChargingToggleSupported && !mIsChargingBypassSupported) {
-            mIsPowerConnected = true;
-            onPowerStatus(true);
+            setPowerConnected(true);
             handleSettingChange();
             return;
         }
@@ -286,10 +389,9 @@ public class ChargingControlController extends LineageHealthFeature {
             @Override
             public void onReceive(Context context, Intent intent) {
                 Log.i(TAG, "Power connected, start monitoring battery");
-                mIsPowerConnected = true;
-                onPowerStatus(true);
+                setPowerConnected(true);
             }
-        }, connectedFilter);
+        }, connectedFilter, null, mHandler);
 
         // Stop monitor battery status when power disconnected
         IntentFilter disconnectedFilter = new IntentFilter(Intent.ACTION_POWER_DISCONNECTED);
@@ -297,10 +399,9 @@ public class ChargingControlController extends LineageHealthFeature {
             @Override
             public void onReceive(Context context, Intent intent) {
                 Log.i(TAG, "Power disconnected, stop monitoring battery");
-                mIsPowerConnected = false;
-                onPowerStatus(false);
+                setPowerConnected(false);
             }
-        }, disconnectedFilter);
+        }, disconnectedFilter, null, mHandler);
 
         // Initial monitor
         IntentFilter ifilter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
@@ -320,6 +421,11 @@ public class ChargingControlController extends LineageHealthFeature {
         mEstimatedFullTime = 0;
         mChargingStopReason = 0;
         mIsControlCancelledOnce = false;
+        mPlugType = -1;
+        mChargeTimeRemaining = -1;
+        mLastChargeTime = null;
+        mAppliedChargingEnabled = null;
+        mIsDeadlineCancelled = false;
         mChargingNotification.cancel();
     }
 
@@ -328,18 +434,36 @@ public class ChargingControlController extends LineageHealthFeature {
             mBattReceiver = new LineageHealthBatteryBroadcastReceiver();
         }
         IntentFilter battFilter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
-        mContext.registerReceiver(mBattReceiver, battFilter);
+        mInjector.registerReceiver(mBattReceiver, battFilter, mHandler);
+
+        // The charger may have reset the HAL while it was unplugged
+        mAppliedChargingEnabled = null;
     }
 
     private void onPowerDisconnected() {
         if (mBattReceiver != null) {
-            mContext.unregisterReceiver(mBattReceiver);
+            mInjector.unregisterReceiver(mBattReceiver);
         }
 
+        mChargeTimeModel.interrupt();
+        mChargeTimeModel.saveIfDirty();
+
         // On disconnected, reset internal state
         resetInternalState();
     }
 
+    void setPowerConnected(boolean connected) {
+        mIsPowerConnected = connected;
+        onPowerStatus(connected);
+    }
+
+    void onNextAlarmChanged() {
+        mNextAlarmTime = -1;
+        if (mIsPowerConnected && mConfigMode == MODE_AUTO) {
+            updateChargeControl();
+        }
+    }
+
     private void onPowerStatus(boolean enable) {
         if (enable) {
             onPowerConnected();
@@ -364,24 +488,17 @@ public class ChargingControlController extends LineageHealthFeature {
 
     private ChargeTime getChargeTime() {
         // Get duration to target full time
-        final long currentTime = System.currentTimeMillis();
-        Log.i(TAG, "Current time is " + msToString(currentTime));
+        final long currentTime = mInjector.currentTimeMillis();
+        if (DEBUG) Log.d(TAG, "Current time is " + msToString(currentTime));
         long targetTime = 0, startTime = currentTime;
         if (mConfigMode == MODE_AUTO) {
             // Use alarm as the target time. Maybe someday we can use a model.
-            AlarmManager m = mContext.getSystemService(AlarmManager.class);
-            if (m == null) {
-                Log.e(TAG, "Failed to get alarm service!");
-                mChargingNotification.cancel();
-                return null;
-            }
-            AlarmManager.AlarmClockInfo alarmClockInfo = m.getNextAlarmClock();
-            if (alarmClockInfo == null) {
+            targetTime = getNextAlarmTime();
+            if (targetTime <= 0) {
                 // We didn't find an alarm. Clear waiting flags because we can't predict anyway
                 mChargingNotification.cancel();
                 return null;
             }
-            targetTime = alarmClockInfo.getTriggerTime();
         } else if (mConfigMode == MODE_MANUAL) {
             // User manually controlled time
             startTime = getTimeMillisFromSecondOfDay(mConfigStartTime);
@@ -399,19 +516,103 @@ public class ChargingControlController extends LineageHealthFeature {
             return null;
         }
 
-        Log.i(TAG, "Target time is " + msToString(targetTime));
+        if (DEBUG) Log.d(TAG, "Target time is " + msToString(targetTime));
 
         return new ChargeTime(startTime, targetTime);
     }
 
+    /**
+     * @return trigger time of the next alarm, 0 if there is none or -1 on failure
+     */
+    private long getNextAlarmTime() {
+        if (mNextAlarmTime < 0) {
+            mNextAlarmTime = mInjector.getNextAlarmTime();
+        }
+        return mNextAlarmTime;
+    }
+
+    /**
+     * Prefer the learned charge time model. Battery stats are expensive to collect,
+     * so only fall back to them until the model has seen enough, and only ask for
+     * a new estimate when the battery level changed and age the previous one otherwise.
+     *
+     * @return estimated time to full in millis, or -1 if unknown
+     */
+    private long getChargeTimeRemaining() {
+        final long predicted = mChargeTimeModel.predictTimeToFull((int) mBatteryPct, mPlugType);
+        if (predicted >= 0) {
+            return predicted;
+        }
+
+        final long now = mInjector.elapsedRealtime();
+        if (mChargeTimeRemaining >= 0 && mChargeTimeRemainingPct == mBatteryPct) {
+            return Math.max(0, mChargeTimeRemaining - (now - mChargeTimeRemainingElapsed));
+        }
+
+        final long remaining = mInjector.getChargeTimeRemaining();
+        if (remaining < 0) {
+            return -1;
+        }
+        mChargeTimeRemaining = remaining;
+        mChargeTimeRemainingPct = mBatteryPct;
+        mChargeTimeRemainingElapsed = now;
+        return mChargeTimeRemaining;
+    }
+
     private void updateChargeControl() {
+        mLastChargeTime = null;
+
         if (mIsChargingToggleSupported) {
             updateChargeToggle();
         } else if (mIsChargingDeadlineSupported) {
             updateChargeDeadline();
         }
+
+        scheduleTimedUpdate();
+        notifyStateChanged();
     }
 
+    /**
+     * Battery broadcasts only arrive when the level or plug state changes, so wake up
+     * for the next point in time at which the outcome of the evaluation may change.
+     */
+    private void scheduleTimedUpdate() {
+        mInjector.cancelUpdateAlarm(mTimedUpdateListener);
+
+        final ChargeTime t = mLastChargeTime;
+        if (t == null || !mIsPowerConnected || !mConfigEnabled || mIsControlCancelledOnce) {
+            return;
+        }
+
+        final long currentTime = mInjector.currentTimeMillis();
+        final long targetTime = t.getTargetTime();
+        final long[] candidates = new long[] {
+                t.getStartTime(),
+                targetTime,
+                mConfigMode == MODE_AUTO ? targetTime - CHARGE_CTRL_MAX_WAIT_TIME : 0,
+                isChargingReasonSet(ChargingStopReason.WAITING) ?
+                        targetTime - mEstimatedFullTime : 0 };
+
+        long next = Long.MAX_VALUE;
+        for (long candidate : candidates) {
+            if (candidate > currentTime && candidate < next) {
+                next = candidate;
+            }
+        }
+        if (next != Long.MAX_VALUE) {
+            if (DEBUG) Log.d(TAG, "Next timed update at " + msToString(next));
+            mInjector.setUpdateAlarm(next, mTimedUpdateListener, mHandler);
+        }
+    }
+
+    private final AlarmManager.OnAlarmListener mTimedUpdateListener =
+            new AlarmManager.OnAlarmListener() {
+        @Override
+        public void onAlarm() {
+            updateChargeControl();
+        }
+    };
+
     private boolean shouldSetLimitFlag() {
         if (mConfigMode != MODE_LIMIT) {
             return false;
@@ -450,13 +651,16 @@ public class ChargingControlController extends LineageHealthFeature {
             mChargingNotification.cancel();
             return false;
         }
+        mLastChargeTime = t;
 
         final long targetTime = t.getTargetTime();
         final long startTime = t.getStartTime();
-        final long currentTime = System.currentTimeMillis();
+        final long currentTime = mInjector.currentTimeMillis();
 
-        Log.i(TAG, "Got target time " + msToString(targetTime) + ", start time " +
-                msToString(startTime) + ", current time " + msToString(currentTime));
+        if (DEBUG) {
+            Log.d(TAG, "Got target time " + msToString(targetTime) + ", start time " +
+                    msToString(startTime) + ", current time " + msToString(currentTime));
+        }
 
         if (mConfigMode == MODE_AUTO) {
             if (mSavedAlarmTime != targetTime) {
@@ -473,7 +677,7 @@ public class ChargingControlController extends LineageHealthFeature {
             }
 
             // Don't activate if we are more than 9 hrs away from the target alarm
-            if (targetTime - currentTime >= 9 * 60 * 60 * 1000) {
+            if (targetTime - currentTime >= CHARGE_CTRL_MAX_WAIT_TIME) {
                 mChargingNotification.cancel();
                 return false;
             }
@@ -500,10 +704,12 @@ public class ChargingControlController extends LineageHealthFeature {
         }
 
         long deltaTime = targetTime - currentTime;
-        Log.i(TAG, "Current time to target: " + msToString(deltaTime));
+        if (DEBUG) Log.d(TAG, "Current time to target: " + msToString(deltaTime));
 
         if (isChargingReasonSet(ChargingStopReason.WAITING)) {
-            Log.i(TAG, "Current saved estimation to full: " + msToString(mEstimatedFullTime));
+            if (DEBUG) {
+                Log.d(TAG, "Current saved estimation to full: " + msToString(mEstimatedFullTime));
+            }
             if (deltaTime <= mEstimatedFullTime) {
                 Log.i(TAG, "Unset waiting flag");
                 return false;
@@ -511,21 +717,15 @@ public class ChargingControlController extends LineageHealthFeature {
             return true;
         }
 
-        final BatteryUsageStats batteryUsageStats = mContext.getSystemService(
-                BatteryStatsManager.class).getBatteryUsageStats();
-        if (batteryUsageStats == null) {
-            Log.e(TAG, "Failed to get battery usage stats");
-            return false;
-        }
-        long remaining = batteryUsageStats.getChargeTimeRemainingMs();
+        long remaining = getChargeTimeRemaining();
         if (remaining == -1) {
-            Log.i(TAG, "not enough data for prediction for now, waiting for more data");
+            if (DEBUG) Log.d(TAG, "not enough data for prediction for now, waiting for more data");
             return false;
         }
 
         // Add margin here
         remaining += mChargingTimeMargin;
-        Log.i(TAG, "Current estimated time to full: " + msToString(remaining));
+        if (DEBUG) Log.d(TAG, "Current estimated time to full: " + msToString(remaining));
         if (deltaTime > remaining) {
             Log.i(TAG, "Stop charging and wait, saving remaining time");
             mEstimatedFullTime = remaining;
@@ -558,20 +758,36 @@ public class ChargingControlController extends LineageHealthFeature {
     private void updateChargeToggle() {
         updateChargingStopReason();
 
-        Log.i(TAG, "Current mChargingStopReason: " + mChargingStopReason);
-        boolean isChargingEnabled = false;
-        try {
-            isChargingEnabled = mChargingControl.getChargingEnabled();
-        } catch (IllegalStateException | RemoteException | UnsupportedOperationException e) {
-            Log.e(TAG, "Failed to get charging enabled status!");
-        }
-        if (isChargingEnabled != (mChargingStopReason == 0)) {
+        if (DEBUG) Log.d(TAG, "Current mChargingStopReason: " + mChargingStopReason);
+        final boolean enable = mChargingStopReason == 0;
+
+        // Only ask the HAL when we don't know what it was last told
+        if (mAppliedChargingEnabled == null) {
+            final long start = SystemClock.elapsedRealtimeNanos();
             try {
-                mChargingControl.setChargingEnabled(!isChargingEnabled);
+                mAppliedChargingEnabled = mChargingControl.getChargingEnabled();
+                mGetEnabledStats.record(start, true);
             } catch (IllegalStateException | RemoteException | UnsupportedOperationException e) {
-                Log.e(TAG, "Failed to set charging status");
+                mGetEnabledStats.record(start, false);
+                Log.e(TAG, "Failed to get charging enabled status!");
             }
         }
+        if (mAppliedChargingEnabled != null && mAppliedChargingEnabled == enable) {
+            return;
+        }
+
+        final long start = SystemClock.elapsedRealtimeNanos();
+        try {
+            mChargingControl.setChargingEnabled(enable);
+            mSetEnabledStats.record(start, true);
+            mAppliedChargingEnabled = enable;
+            onHalCallSucceeded();
+        } catch (IllegalStateException | RemoteException | UnsupportedOperationException e) {
+            mSetEnabledStats.record(start, false);
+            Log.e(TAG, "Failed to set charging status");
+            mAppliedChargingEnabled = null;
+            scheduleHalRetry();
+        }
     }
 
     private void updateChargeDeadline() {
@@ -584,6 +800,9 @@ public class ChargingControlController extends LineageHealthFeature {
         final ChargeTime t = getChargeTime();
 
         if (!mConfigEnabled || t == null || mIsControlCancelledOnce) {
+            if (mIsDeadlineCancelled) {
+                return;
+            }
             deadline = -1;
             targetTime = 0;
             Log.i(TAG, "Canceling charge deadline");
@@ -592,21 +811,47 @@ public class ChargingControlController extends LineageHealthFeature {
                 return;
             }
             targetTime = t.getTargetTime();
-            final long currentTime = System.currentTimeMillis();
+            final long currentTime = mInjector.currentTimeMillis();
             deadline = (targetTime - currentTime) / 1000;
             Log.i(TAG, "Setting charge deadline: Current time: " + msToString(currentTime));
             Log.i(TAG, "Setting charge deadline: Target time: " + msToString(targetTime));
             Log.i(TAG, "Setting charge deadline: Deadline (seconds): " + deadline);
         }
 
+        final long start = SystemClock.elapsedRealtimeNanos();
         try {
             mChargingControl.setChargingDeadline(deadline);
+            mSetDeadlineStats.record(start, true);
             mSavedTargetTime = targetTime;
+            mIsDeadlineCancelled = deadline == -1;
+            onHalCallSucceeded();
         } catch (IllegalStateException | RemoteException | UnsupportedOperationException e) {
+            mSetDeadlineStats.record(start, false);
             Log.e(TAG, "Failed to set charge deadline", e);
+            scheduleHalRetry();
         }
     }
 
+    private void onHalCallSucceeded() {
+        mHalRetryCount = 0;
+        mHandler.removeCallbacks(mHalRetryRunnable);
+    }
+
+    private void scheduleHalRetry() {
+        final long delay = Math.min(HAL_RETRY_MAX_DELAY,
+                HAL_RETRY_DELAY << Math.min(mHalRetryCount, 6));
+        mHalRetryCount++;
+        mHandler.removeCallbacks(mHalRetryRunnable);
+        mHandler.postDelayed(mHalRetryRunnable, delay);
+    }
+
+    private final Runnable mHalRetryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            updateChargeControl();
+        }
+    };
+
     private String msToString(long ms) {
         Calendar calendar = Calendar.getInstance();
         calendar.setTimeInMillis(ms);
@@ -621,7 +866,8 @@ public class ChargingControlController extends LineageHealthFeature {
      */
     private long getTimeMillisFromSecondOfDay(int time) {
         ZoneId utcZone = ZoneOffset.UTC;
-        LocalDate currentDate = LocalDate.now();
+        LocalDate currentDate = Instant.ofEpochMilli(mInjector.currentTimeMillis())
+                .atZone(ZoneId.systemDefault()).toLocalDate();
         LocalTime timeOfDay = LocalTime.ofSecondOfDay(time);
 
         ZonedDateTime zonedDateTime = ZonedDateTime.of(currentDate, timeOfDay,
@@ -651,8 +897,23 @@ public class ChargingControlController extends LineageHealthFeature {
                 LineageSettings.System.CHARGING_CONTROL_TARGET_TIME,
                 mDefaultTargetTime);
 
+        onConfigChanged();
+    }
+
+    void setConfig(boolean enabled, int mode, int limit, int startTime, int targetTime) {
+        mConfigEnabled = enabled;
+        mConfigMode = mode;
+        mConfigLimit = limit;
+        mConfigStartTime = startTime;
+        mConfigTargetTime = targetTime;
+
+        onConfigChanged();
+    }
+
+    private void onConfigChanged() {
         // Reset internal states
         resetInternalState();
+        mNextAlarmTime = -1;
 
         // Update based on those values
         updateChargeControl();
@@ -683,9 +944,21 @@ public class ChargingControlController extends LineageHealthFeature {
         pw.println("  mIsDoneNotification: " + mChargingNotification.isDoneNotification());
         pw.println("  mIsControlCancelledOnce: " + mIsControlCancelledOnce);
         pw.println("  mSavedAlarmTime: " + msToString(mSavedAlarmTime));
+        pw.println("  mNextAlarmTime: " + msToString(mNextAlarmTime));
+        pw.println("  mChargeTimeRemaining: " + mChargeTimeRemaining);
+        pw.println("  mAppliedChargingEnabled: " + mAppliedChargingEnabled);
+        pw.println("  mIsDeadlineCancelled: " + mIsDeadlineCancelled);
+        pw.println("  mHalRetryCount: " + mHalRetryCount);
+        pw.println();
+        pw.println("ChargingControlController HAL calls:");
+        mGetEnabledStats.dump(pw);
+        mSetEnabledStats.dump(pw);
+        mSetDeadlineStats.dump(pw);
         if (mIsChargingDeadlineSupported) {
             pw.println("  mSavedTargetTime (Deadline): " + msToString(mSavedTargetTime));
         }
+        pw.println();
+        mChargeTimeModel.dump(pw);
     }
 
     /* Battery Broadcast Receiver */
@@ -702,14 +975,40 @@ public class ChargingControlController extends LineageHealthFeature {
                 return;
             }
 
-            mBatteryPct = level * 100 / (float) scale;
-            updateChargeControl();
+            onBatteryChanged(level * 100 / (float) scale,
+                    intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0));
+        }
+    }
+
+    void onBatteryChanged(float batteryPct, int plugType) {
+        // This is sent for every voltage and temperature change as well, so only
+        // evaluate again when the level or the plug state actually changed
+        if (batteryPct == mBatteryPct && plugType == mPlugType) {
+            return;
+        }
+
+        // Only learn from uninterrupted, unthrottled charging
+        if (mChargingStopReason == 0 && mSavedTargetTime == 0) {
+            mChargeTimeModel.onBatteryLevel(mInjector.elapsedRealtime(), (int) batteryPct,
+                    plugType);
+            mChargeTimeModel.saveIfNeeded();
+        } else {
+            mChargeTimeModel.interrupt();
+        }
+
+        // A different charger may come with its own idea of whether to charge. Right
+        // after connecting the HAL was just asked, so only when a known type changes.
+        if (mPlugType != -1 && plugType != mPlugType) {
+            mAppliedChargingEnabled = null;
         }
+
+        mBatteryPct = batteryPct;
+        mPlugType = plugType;
+        updateChargeControl();
     }
 
     /* Notification class */
     class ChargingControlNotification {
-        private final NotificationManager mNotificationManager;
         private final Context mContext;
 
         private static final int CHARGING_CONTROL_NOTIFICATION_ID = 1000;
@@ -719,28 +1018,29 @@ public class ChargingControlController extends LineageHealthFeature {
 
         private boolean mIsDoneNotification = false;
         private boolean mIsNotificationPosted = false;
+        private boolean mIsChannelCreated = false;
+
+        // Content of the posted notification, to skip posting the same one again
+        private Long mPostedTargetTime;
+        private int mPostedLimit;
 
         ChargingControlNotification(Context context) {
             mContext = context;
 
-            // Get notification manager
-            mNotificationManager = mContext.getSystemService(NotificationManager.class);
-
             // Register notification monitor
             IntentFilter notificationFilter = new IntentFilter(ACTION_CHARGING_CONTROL_CANCEL_ONCE);
-            mContext.registerReceiver(new LineageHealthNotificationBroadcastReceiver(),
-                    notificationFilter);
+            mInjector.registerReceiver(new LineageHealthNotificationBroadcastReceiver(),
+                    notificationFilter, mHandler);
         }
 
         public void post(Long targetTime, boolean done) {
-            if (mIsNotificationPosted && mIsDoneNotification == done) {
+            if (mIsNotificationPosted && mIsDoneNotification == done
+                    && Objects.equals(mPostedTargetTime, targetTime)
+                    && (targetTime != null || mPostedLimit == mConfigLimit)) {
                 return;
             }
 
-            if (mIsNotificationPosted) {
-                cancel();
-            }
-
+            // Posting with the same id replaces any notification that is still shown
             if (done) {
                 postChargingDoneNotification(targetTime);
             } else {
@@ -749,9 +1049,14 @@ public class ChargingControlController extends LineageHealthFeature {
 
             mIsNotificationPosted = true;
             mIsDoneNotification = done;
+            mPostedTargetTime = targetTime;
+            mPostedLimit = mConfigLimit;
         }
 
         public void cancel() {
+            if (!mIsNotificationPosted) {
+                return;
+            }
             cancelChargingControlNotification();
             mIsNotificationPosted = false;
         }
@@ -774,17 +1079,17 @@ public class ChargingControlController extends LineageHealthFeature {
 
                     // Register a one-time receiver that resets internal state on power
                     // disconnection
-                    mContext.registerReceiver(new BroadcastReceiver() {
+                    mInjector.registerReceiver(new BroadcastReceiver() {
                         @Override
                         public void onReceive(Context context, Intent intent) {
                             Log.i(TAG, "Power disconnected, reset internal states");
                             resetInternalState();
-                            mContext.unregisterReceiver(this);
+                            mInjector.unregisterReceiver(this);
                         }
-                    }, disconnectFilter);
+                    }, disconnectFilter, mHandler);
                 }
                 updateChargeControl();
-                cancelChargingControlNotification();
+                cancel();
             }
         }
 
@@ -823,12 +1128,10 @@ public class ChargingControlController extends LineageHealthFeature {
                                     cancelPendingIntent);
 
             createNotificationChannelIfNeeded();
-            mNotificationManager.notify(CHARGING_CONTROL_NOTIFICATION_ID, notification.build());
+            mInjector.notify(CHARGING_CONTROL_NOTIFICATION_ID, notification.build());
         }
 
         private void postChargingDoneNotification(Long targetTime) {
-            cancelChargingControlNotification();
-
             String title = mContext.getString(R.string.charging_control_notification_title);
             String message;
             if (targetTime != null) {
@@ -864,26 +1167,26 @@ public class ChargingControlController extends LineageHealthFeature {
             }
 
             createNotificationChannelIfNeeded();
-            mNotificationManager.notify(CHARGING_CONTROL_NOTIFICATION_ID, notification.build());
+            mInjector.notify(CHARGING_CONTROL_NOTIFICATION_ID, notification.build());
         }
 
         private void createNotificationChannelIfNeeded() {
-            String id = CHARGING_CONTROL_CHANNEL_ID;
-            NotificationChannel channel = mNotificationManager.getNotificationChannel(id);
-            if (channel != null) {
+            if (mIsChannelCreated) {
                 return;
             }
+            mIsChannelCreated = true;
 
+            String id = CHARGING_CONTROL_CHANNEL_ID;
             String name = mContext.getString(R.string.charging_control_notification_channel);
             int importance = NotificationManager.IMPORTANCE_LOW;
             NotificationChannel batteryHealthChannel = new NotificationChannel(id, name,
                     importance);
             batteryHealthChannel.setBlockable(true);
-            mNotificationManager.createNotificationChannel(batteryHealthChannel);
+            mInjector.createNotificationChannelIfNeeded(batteryHealthChannel);
         }
 
         private void cancelChargingControlNotification() {
-            mNotificationManager.cancel(CHARGING_CONTROL_NOTIFICATION_ID);
+            mInjector.cancelNotification(CHARGING_CONTROL_NOTIFICATION_ID);
         }
 
         /* Notification Broadcast Receiver */
@@ -895,6 +1198,35 @@ public class ChargingControlController extends LineageHealthFeature {
         }
     }
 
+    /* Call counts and latencies of one HAL method */
+    static final class HalCallStats {
+        private final String mName;
+        private int mCalls;
+        private int mFailures;
+        private long mTotalNanos;
+        private long mMaxNanos;
+
+        HalCallStats(String name) {
+            mName = name;
+        }
+
+        void record(long startNanos, boolean success) {
+            final long duration = SystemClock.elapsedRealtimeNanos() - startNanos;
+            mCalls++;
+            if (!success) {
+                mFailures++;
+            }
+            mTotalNanos += duration;
+            mMaxNanos = Math.max(mMaxNanos, duration);
+        }
+
+        void dump(PrintWriter pw) {
+            pw.println("  " + mName + ": calls=" + mCalls + " failures=" + mFailures
+                    + " avgUs=" + (mCalls > 0 ? mTotalNanos / mCalls / 1000 : 0)
+                    + " maxUs=" + mMaxNanos / 1000);
+        }
+    }
+
     /* A representation of start and target time */
     static final class ChargeTime {
         private final long mStartTime;
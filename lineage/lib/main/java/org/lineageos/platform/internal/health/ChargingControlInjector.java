@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.platform.internal.health;
+
+import android.app.AlarmManager;
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryStatsManager;
+import android.os.BatteryUsageStats;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+
+import vendor.lineage.health.IChargingControl;
+
+/**
+ * Everything {@link ChargingControlController} needs from the rest of the system:
+ * time, alarms, charge time estimates, notifications and the charging control HAL.
+ * Tests replace it to replay charging sessions on a simulated clock.
+ */
+class ChargingControlInjector {
+    private static final String TAG = "LineageHealth";
+
+    /* The parts of the charging control HAL that are in use */
+    interface Hal {
+        int getSupportedMode() throws RemoteException;
+
+        boolean getChargingEnabled() throws RemoteException;
+
+        void setChargingEnabled(boolean enabled) throws RemoteException;
+
+        void setChargingDeadline(long deadline) throws RemoteException;
+    }
+
+    protected final Context mContext;
+
+    ChargingControlInjector(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * @return the charging control HAL, or null if the device has none
+     */
+    Hal getHal() {
+        final IChargingControl chargingControl = IChargingControl.Stub.asInterface(
+                ServiceManager.waitForDeclaredService(
+                        IChargingControl.DESCRIPTOR + "/default"));
+        if (chargingControl == null) {
+            return null;
+        }
+
+        return new Hal() {
+            @Override
+            public int getSupportedMode() throws RemoteException {
+                return chargingControl.getSupportedMode();
+            }
+
+            @Override
+            public boolean getChargingEnabled() throws RemoteException {
+                return chargingControl.getChargingEnabled();
+            }
+
+            @Override
+            public void setChargingEnabled(boolean enabled) throws RemoteException {
+                chargingControl.setChargingEnabled(enabled);
+            }
+
+            @Override
+            public void setChargingDeadline(long deadline) throws RemoteException {
+                chargingControl.setChargingDeadline(deadline);
+            }
+        };
+    }
+
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    long elapsedRealtime() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * @return trigger time of the next alarm, 0 if there is none or -1 on failure
+     */
+    long getNextAlarmTime() {
+        AlarmManager m = mContext.getSystemService(AlarmManager.class);
+        if (m == null) {
+            Log.e(TAG, "Failed to get alarm service!");
+            return -1;
+        }
+        AlarmManager.AlarmClockInfo alarmClockInfo = m.getNextAlarmClock();
+        return alarmClockInfo != null ? alarmClockInfo.getTriggerTime() : 0;
+    }
+
+    /**
+     * Wake up at the given wall clock time, replacing any previous wakeup
+     * for the same listener.
+     */
+    void setUpdateAlarm(long triggerTime, AlarmManager.OnAlarmListener listener,
+            Handler handler) {
+        AlarmManager m = mContext.getSystemService(AlarmManager.class);
+        if (m != null) {
+            m.setExact(AlarmManager.RTC_WAKEUP, triggerTime, TAG, listener, handler);
+        }
+    }
+
+    void cancelUpdateAlarm(AlarmManager.OnAlarmListener listener) {
+        AlarmManager m = mContext.getSystemService(AlarmManager.class);
+        if (m != null) {
+            m.cancel(listener);
+        }
+    }
+
+    /**
+     * @return time to full estimated by battery stats in millis, or -1 if unknown
+     */
+    long getChargeTimeRemaining() {
+        final BatteryUsageStats batteryUsageStats = mContext.getSystemService(
+                BatteryStatsManager.class).getBatteryUsageStats();
+        if (batteryUsageStats == null) {
+            Log.e(TAG, "Failed to get battery usage stats");
+            return -1;
+        }
+        return batteryUsageStats.getChargeTimeRemainingMs();
+    }
+
+    /**
+     * @return where to persist the charge time model, or null to keep it in memory
+     */
+    File getChargeTimeModelFile() {
+        return new File(Environment.getDataSystemDirectory(), "charging_control_model.bin");
+    }
+
+    Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter, Handler handler) {
+        return mContext.registerReceiver(receiver, filter, null, handler);
+    }
+
+    void unregisterReceiver(BroadcastReceiver receiver) {
+        mContext.unregisterReceiver(receiver);
+    }
+
+    void notify(int id, Notification notification) {
+        mContext.getSystemService(NotificationManager.class).notify(id, notification);
+    }
+
+    void cancelNotification(int id) {
+        mContext.getSystemService(NotificationManager.class).cancel(id);
+    }
+
+    void createNotificationChannelIfNeeded(NotificationChannel channel) {
+        final NotificationManager nm = mContext.getSystemService(NotificationManager.class);
+        if (nm.getNotificationChannel(channel.getId()) == null) {
+            nm.createNotificationChannel(channel);
+        }
+    }
+}
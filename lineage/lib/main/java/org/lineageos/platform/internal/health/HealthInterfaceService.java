@@ -28,6 +28,8 @@ import com.android.server.ServiceThread;
 import org.lineageos.platform.internal.LineageSystemService;
 
 import lineageos.app.LineageContextConstants;
+import lineageos.health.ChargingControlState;
+import lineageos.health.IChargingControlStateListener;
 import lineageos.health.IHealthInterface;
 import vendor.lineage.health.ChargingControlSupportedMode;
 
@@ -165,6 +167,23 @@ public class HealthInterfaceService extends LineageSystemService {
             return mCCC.isChargingModeSupported(ChargingControlSupportedMode.TOGGLE);
         }
 
+        @Override
+        public ChargingControlState getChargingControlState() {
+            return mCCC.getState();
+        }
+
+        @Override
+        public void registerChargingControlStateListener(
+                IChargingControlStateListener listener) {
+            mCCC.registerStateListener(listener);
+        }
+
+        @Override
+        public void unregisterChargingControlStateListener(
+                IChargingControlStateListener listener) {
+            mCCC.unregisterStateListener(listener);
+        }
+
         @Override
         public void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
             mContext.enforceCallingOrSelfPermission(Manifest.permission.DUMP, TAG);
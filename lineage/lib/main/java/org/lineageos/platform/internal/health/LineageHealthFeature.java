@@ -18,11 +18,13 @@ package org.lineageos.platform.internal.health;
 
 import android.content.Context;
 import android.os.Handler;
+import android.util.Log;
 
 import org.lineageos.platform.internal.LineageBaseFeature;
 
 public abstract class LineageHealthFeature extends LineageBaseFeature {
     protected static final String TAG = "LineageHealth";
+    protected static final boolean DEBUG = Log.isLoggable(TAG, Log.DEBUG);
 
     public LineageHealthFeature(Context context, Handler handler) {
         super(context, handler);
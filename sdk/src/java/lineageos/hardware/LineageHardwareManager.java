@@ -21,9 +21,11 @@ import android.hidl.base.V1_0.IBase;
 import android.os.IBinder;
 import android.os.RemoteException;
 import android.os.ServiceManager;
+import android.os.SystemClock;
 import android.util.ArrayMap;
 import android.util.Log;
 import android.util.Range;
+import android.util.SparseArray;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.util.ArrayUtils;
@@ -47,12 +49,14 @@ import vendor.lineage.touch.V1_0.IKeySwapper;
 import vendor.lineage.touch.V1_0.IStylusMode;
 import vendor.lineage.touch.V1_0.ITouchscreenGesture;
 
+import java.io.PrintWriter;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Manages access to LineageOS hardware extensions
@@ -186,6 +190,30 @@ public final class LineageHardwareManager {
         FEATURE_READING_ENHANCEMENT
     );
 
+    private static final int[] HIDL_FEATURES = {
+        FEATURE_ADAPTIVE_BACKLIGHT,
+        FEATURE_ANTI_FLICKER,
+        FEATURE_AUTO_CONTRAST,
+        FEATURE_COLOR_BALANCE,
+        FEATURE_COLOR_ENHANCEMENT,
+        FEATURE_DISPLAY_COLOR_CALIBRATION,
+        FEATURE_DISPLAY_MODES,
+        FEATURE_PICTURE_ADJUSTMENT,
+        FEATURE_READING_ENHANCEMENT,
+        FEATURE_SUNLIGHT_ENHANCEMENT,
+        FEATURE_HIGH_TOUCH_POLLING_RATE,
+        FEATURE_HIGH_TOUCH_SENSITIVITY,
+        FEATURE_KEY_DISABLE,
+        FEATURE_KEY_SWAP,
+        FEATURE_TOUCH_HOVERING,
+        FEATURE_TOUCHSCREEN_GESTURES
+    };
+
+    private static final int HIDL_PROBE_THREADS = 4;
+
+    // Feature constant names for preference constraints, resolved once
+    private static ArrayMap<String, Integer> sFeatureNames;
+
     private static ILineageHardwareService sService;
     private static LineageHardwareManager sLineageHardwareManagerInstance;
 
@@ -194,8 +222,17 @@ public final class LineageHardwareManager {
     private final ArrayMap<String, String> mDisplayModeMappings = new ArrayMap<String, String>();
     private final boolean mFilterDisplayModes;
 
-    // HIDL hals
-    private HashMap<Integer, IBase> mHIDLMap = new HashMap<Integer, IBase>();
+    // HIDL hals, probed once and replaced rather than modified when published
+    private final Object mHIDLLock = new Object();
+    private volatile SparseArray<IBase> mHIDLMap;
+
+    // guarded by mHIDLLock
+    private final SparseArray<IBase> mHIDLProbed = new SparseArray<IBase>();
+    private final long[] mHIDLProbeLatency = new long[HIDL_FEATURES.length];
+    private int mHIDLPending = -1;
+
+    // Features supported by LineageHardwareService, -1 until known
+    private volatile int mSupportedFeatures = -1;
 
     /**
      * @hide to prevent subclassing from outside of the framework
@@ -235,7 +272,7 @@ public final class LineageHardwareManager {
      * @param context
      * @return {@link LineageHardwareManager}
      */
-    public static LineageHardwareManager getInstance(Context context) {
+    public static synchronized LineageHardwareManager getInstance(Context context) {
         if (sLineageHardwareManagerInstance == null) {
             sLineageHardwareManagerInstance = new LineageHardwareManager(context);
         }
@@ -267,20 +304,108 @@ public final class LineageHardwareManager {
     }
 
     private boolean isSupportedHIDL(int feature) {
-        if (!mHIDLMap.containsKey(feature)) {
-            mHIDLMap.put(feature, getHIDLService(feature));
+        if (mHIDLMap == null) {
+            awaitHIDLServices(-1);
         }
         return mHIDLMap.get(feature) != null;
     }
 
     private boolean isSupportedHWC2(int feature) {
-        try {
-            if (checkService()) {
-                return feature == (sService.getSupportedFeatures() & feature);
+        int features = mSupportedFeatures;
+        if (features == -1) {
+            try {
+                if (checkService()) {
+                    features = sService.getSupportedFeatures();
+                    mSupportedFeatures = features;
+                }
+            } catch (RemoteException e) {
             }
-        } catch (RemoteException e) {
         }
-        return false;
+        return features != -1 && feature == (features & feature);
+    }
+
+    /**
+     * Wait for HIDL service discovery to finish, starting it if needed.
+     *
+     * All HIDL services are looked up at once on a small executor, since each
+     * lookup may block in the service manager. If the timeout expires first,
+     * the services found so far are published and any which answer later
+     * are added as they arrive.
+     *
+     * @param timeoutMillis maximum time to wait, or a negative value to wait
+     *                      until every lookup has finished
+     * @return true if every lookup has finished
+     *
+     * @hide
+     */
+    public boolean awaitHIDLServices(long timeoutMillis) {
+        synchronized (mHIDLLock) {
+            if (mHIDLPending < 0) {
+                startHIDLProbesLocked();
+            }
+
+            final long deadline = SystemClock.uptimeMillis() + timeoutMillis;
+            boolean interrupted = false;
+            while (mHIDLPending > 0) {
+                final long remaining = deadline - SystemClock.uptimeMillis();
+                if (timeoutMillis >= 0 && remaining <= 0) {
+                    break;
+                }
+                try {
+                    mHIDLLock.wait(timeoutMillis < 0 ? 0 : remaining);
+                } catch (InterruptedException e) {
+                    // The snapshot is kept forever, so finish it first
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (mHIDLMap == null) {
+                if (mHIDLPending > 0) {
+                    Log.w(TAG, "HIDL discovery timed out, " + mHIDLPending + " pending");
+                }
+                mHIDLMap = mHIDLProbed.clone();
+            }
+            return mHIDLPending == 0;
+        }
+    }
+
+    private void startHIDLProbesLocked() {
+        mHIDLPending = HIDL_FEATURES.length;
+        Arrays.fill(mHIDLProbeLatency, -1);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(HIDL_PROBE_THREADS);
+        for (int i = 0; i < HIDL_FEATURES.length; i++) {
+            final int index = i;
+            executor.execute(() -> {
+                final long start = SystemClock.elapsedRealtime();
+                IBase hal = null;
+                try {
+                    hal = getHIDLService(HIDL_FEATURES[index]);
+                } finally {
+                    onHIDLServiceProbed(index, hal, SystemClock.elapsedRealtime() - start);
+                }
+            });
+        }
+        executor.shutdown();
+    }
+
+    private void onHIDLServiceProbed(int index, IBase hal, long latency) {
+        synchronized (mHIDLLock) {
+            mHIDLProbeLatency[index] = latency;
+            if (hal != null) {
+                mHIDLProbed.put(HIDL_FEATURES[index], hal);
+            }
+            mHIDLPending--;
+
+            // Publish once complete, or again for a late arrival after a timeout
+            if (mHIDLPending == 0 || (mHIDLMap != null && hal != null)) {
+                mHIDLMap = mHIDLProbed.clone();
+            }
+            mHIDLLock.notifyAll();
+        }
     }
 
     private IBase getHIDLService(int feature) {
@@ -330,19 +455,26 @@ public final class LineageHardwareManager {
      * @hide
      */
     public boolean isSupported(String feature) {
-        if (!feature.startsWith("FEATURE_")) {
-            return false;
-        }
-        try {
-            Field f = getClass().getField(feature);
-            if (f != null) {
-                return isSupported((int) f.get(null));
+        final Integer value = getFeatureNames().get(feature);
+        return value != null && isSupported(value);
+    }
+
+    private static synchronized ArrayMap<String, Integer> getFeatureNames() {
+        if (sFeatureNames == null) {
+            final ArrayMap<String, Integer> names = new ArrayMap<String, Integer>();
+            for (Field f : LineageHardwareManager.class.getFields()) {
+                if (!f.getName().startsWith("FEATURE_") || f.getType() != int.class) {
+                    continue;
+                }
+                try {
+                    names.put(f.getName(), f.getInt(null));
+                } catch (IllegalAccessException e) {
+                    Log.d(TAG, e.getMessage(), e);
+                }
             }
-        } catch (NoSuchFieldException | IllegalAccessException e) {
-            Log.d(TAG, e.getMessage(), e);
+            sFeatureNames = names;
         }
-
-        return false;
+        return sFeatureNames;
     }
     /**
      * Determine if the given feature is enabled or disabled.
@@ -814,6 +946,29 @@ public final class LineageHardwareManager {
         return false;
     }
 
+    /**
+     * Print the outcome and latency of each HIDL service lookup
+     *
+     * @hide
+     */
+    public void dumpHIDLServices(PrintWriter pw, String prefix) {
+        final ArrayMap<String, Integer> names = getFeatureNames();
+        synchronized (mHIDLLock) {
+            pw.println(prefix + "HIDL discovery (pending=" + mHIDLPending + "):");
+            if (mHIDLPending < 0) {
+                return;
+            }
+            for (int i = 0; i < HIDL_FEATURES.length; i++) {
+                final int idx = names.indexOfValue(HIDL_FEATURES[i]);
+                final String name = idx >= 0 ? names.keyAt(idx) : String.valueOf(HIDL_FEATURES[i]);
+                final long latency = mHIDLProbeLatency[i];
+                pw.println(prefix + "  " + name + ": " + (latency < 0 ? "pending" :
+                        (mHIDLProbed.get(HIDL_FEATURES[i]) != null ? "found" : "missing") +
+                        " in " + latency + "ms"));
+            }
+        }
+    }
+
     /**
      * @return true if service is valid
      */
@@ -17,11 +17,15 @@
 package lineageos.hardware;
 
 import android.content.Context;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.RemoteException;
 import android.os.ServiceManager;
 import android.util.Log;
 
+import java.util.ArrayList;
+
 import lineageos.app.LineageContextConstants;
 
 /**
@@ -144,6 +148,42 @@ public class LiveDisplayManager {
     private static LiveDisplayManager sInstance;
     private static ILiveDisplayService sService;
 
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ArrayList<StateListener> mStateListeners = new ArrayList<StateListener>();
+    private LiveDisplayState mLastState;
+
+    /**
+     * Callback for changes to the LiveDisplay state.
+     */
+    public interface StateListener {
+        /**
+         * Called on the main thread whenever the LiveDisplay state changes,
+         * and once with the current state after registration.
+         *
+         * @param state the new state
+         */
+        void onStateChanged(LiveDisplayState state);
+    }
+
+    private final ILiveDisplayStateListener mStateListener = new ILiveDisplayStateListener.Stub() {
+        @Override
+        public void onStateChanged(final LiveDisplayState state) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    final ArrayList<StateListener> listeners;
+                    synchronized (mStateListeners) {
+                        mLastState = state;
+                        listeners = new ArrayList<StateListener>(mStateListeners);
+                    }
+                    for (StateListener listener : listeners) {
+                        listener.onStateChanged(state);
+                    }
+                }
+            });
+        }
+    };
+
     /**
      * @hide to prevent subclassing from outside of the framework
      */
@@ -528,4 +568,90 @@ public class LiveDisplayManager {
             return false;
         }
     }
+
+    /**
+     * Gets a snapshot of all LiveDisplay values with a single call.
+     *
+     * @return the current state, or null if the service is not available or
+     *         has not started yet
+     */
+    public LiveDisplayState getState() {
+        try {
+            if (checkService()) {
+                return sService.getState();
+            }
+        } catch (RemoteException e) {
+        }
+        return null;
+    }
+
+    /**
+     * Applies all values of the given state which differ from the current ones.
+     * The current color temperature and night state are read-only and ignored.
+     *
+     * @param state the desired state, typically built from {@link #getState()}
+     * @return true if all changed values were applied, false if the service
+     *         has not started yet
+     */
+    public boolean setState(LiveDisplayState state) {
+        try {
+            return checkService() && sService.setState(state);
+        } catch (RemoteException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Registers a listener to be told about LiveDisplay state changes,
+     * so clients can cache the state instead of polling for it.
+     *
+     * @param listener
+     */
+    public void addStateListener(final StateListener listener) {
+        synchronized (mStateListeners) {
+            if (mStateListeners.contains(listener)) {
+                return;
+            }
+            mStateListeners.add(listener);
+            if (mStateListeners.size() > 1) {
+                // Already registered with the service, replay the cached state
+                final LiveDisplayState state = mLastState;
+                if (state != null) {
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onStateChanged(state);
+                        }
+                    });
+                }
+                return;
+            }
+        }
+        try {
+            if (checkService()) {
+                sService.registerStateListener(mStateListener);
+            }
+        } catch (RemoteException e) {
+        }
+    }
+
+    /**
+     * Unregisters a listener added with {@link #addStateListener(StateListener)}.
+     *
+     * @param listener
+     */
+    public void removeStateListener(StateListener listener) {
+        synchronized (mStateListeners) {
+            if (!mStateListeners.remove(listener) || !mStateListeners.isEmpty()) {
+                return;
+            }
+            mLastState = null;
+        }
+        try {
+            if (checkService()) {
+                sService.unregisterStateListener(mStateListener);
+            }
+        } catch (RemoteException e) {
+        }
+    }
 }
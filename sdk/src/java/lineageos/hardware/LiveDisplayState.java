@@ -0,0 +1,410 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lineageos.hardware;
+
+import static lineageos.hardware.LiveDisplayManager.MODE_OFF;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import lineageos.os.Build;
+import lineageos.os.Concierge;
+import lineageos.os.Concierge.ParcelInfo;
+
+/**
+ * Holder class for a snapshot of the current LiveDisplay state.
+ *
+ * This carries all user-adjustable values along with the current
+ * color temperature and night state, so that clients can render
+ * LiveDisplay controls with a single call.
+ */
+public class LiveDisplayState implements Parcelable {
+
+    private final int mMode;
+    private final int mColorTemperature;
+    private final int mDayTemperature;
+    private final int mNightTemperature;
+
+    private final boolean mAutoContrast;
+    private final boolean mAutoOutdoorMode;
+    private final boolean mCABC;
+    private final boolean mColorEnhancement;
+    private final boolean mAntiFlicker;
+    private final boolean mNight;
+
+    private final float[] mColorAdjustment;
+    private final HSIC mPictureAdjustment;
+
+    private LiveDisplayState(Builder builder) {
+        mMode = builder.mMode;
+        mColorTemperature = builder.mColorTemperature;
+        mDayTemperature = builder.mDayTemperature;
+        mNightTemperature = builder.mNightTemperature;
+        mAutoContrast = builder.mAutoContrast;
+        mAutoOutdoorMode = builder.mAutoOutdoorMode;
+        mCABC = builder.mCABC;
+        mColorEnhancement = builder.mColorEnhancement;
+        mAntiFlicker = builder.mAntiFlicker;
+        mNight = builder.mNight;
+        mColorAdjustment = builder.mColorAdjustment.clone();
+        mPictureAdjustment = builder.mPictureAdjustment;
+    }
+
+    private LiveDisplayState(Parcel parcel) {
+        // Read parcelable version via the Concierge
+        ParcelInfo parcelInfo = Concierge.receiveParcel(parcel);
+        int parcelableVersion = parcelInfo.getParcelVersion();
+
+        // temp vars
+        int mode = MODE_OFF;
+        int colorTemperature = -1;
+        int dayTemperature = -1;
+        int nightTemperature = -1;
+        boolean autoContrast = false;
+        boolean autoOutdoorMode = false;
+        boolean cabc = false;
+        boolean colorEnhancement = false;
+        boolean antiFlicker = false;
+        boolean night = false;
+        float[] colorAdjustment = new float[] { 1.0f, 1.0f, 1.0f };
+        HSIC pictureAdjustment = null;
+
+        if (parcelableVersion >= Build.LINEAGE_VERSION_CODES.ILAMA) {
+            mode = parcel.readInt();
+            colorTemperature = parcel.readInt();
+            dayTemperature = parcel.readInt();
+            nightTemperature = parcel.readInt();
+            autoContrast = parcel.readInt() == 1;
+            autoOutdoorMode = parcel.readInt() == 1;
+            cabc = parcel.readInt() == 1;
+            colorEnhancement = parcel.readInt() == 1;
+            antiFlicker = parcel.readInt() == 1;
+            night = parcel.readInt() == 1;
+            final float[] adj = parcel.createFloatArray();
+            if (adj != null && adj.length == colorAdjustment.length) {
+                colorAdjustment = adj;
+            }
+            if (parcel.readInt() == 1) {
+                pictureAdjustment = HSIC.CREATOR.createFromParcel(parcel);
+            }
+        }
+
+        // set temps
+        mMode = mode;
+        mColorTemperature = colorTemperature;
+        mDayTemperature = dayTemperature;
+        mNightTemperature = nightTemperature;
+        mAutoContrast = autoContrast;
+        mAutoOutdoorMode = autoOutdoorMode;
+        mCABC = cabc;
+        mColorEnhancement = colorEnhancement;
+        mAntiFlicker = antiFlicker;
+        mNight = night;
+        mColorAdjustment = colorAdjustment;
+        mPictureAdjustment = pictureAdjustment;
+
+        // Complete parcel info for the concierge
+        parcelInfo.complete();
+    }
+
+    /**
+     * @return id of the selected adaptive mode
+     */
+    public int getMode() {
+        return mMode;
+    }
+
+    /**
+     * @return the color temperature currently applied to the display
+     */
+    public int getColorTemperature() {
+        return mColorTemperature;
+    }
+
+    /**
+     * @return the user-specified color temperature to use in the daytime
+     */
+    public int getDayColorTemperature() {
+        return mDayTemperature;
+    }
+
+    /**
+     * @return the user-specified color temperature to use at night
+     */
+    public int getNightColorTemperature() {
+        return mNightTemperature;
+    }
+
+    /**
+     * @return true if auto contrast optimization is enabled
+     */
+    public boolean isAutoContrastEnabled() {
+        return mAutoContrast;
+    }
+
+    /**
+     * @return true if outdoor conditions are detected automatically
+     */
+    public boolean isAutomaticOutdoorModeEnabled() {
+        return mAutoOutdoorMode;
+    }
+
+    /**
+     * @return true if CABC is enabled
+     */
+    public boolean isCABCEnabled() {
+        return mCABC;
+    }
+
+    /**
+     * @return true if color enhancement is enabled
+     */
+    public boolean isColorEnhancementEnabled() {
+        return mColorEnhancement;
+    }
+
+    /**
+     * @return true if anti flicker is enabled
+     */
+    public boolean isAntiFlickerEnabled() {
+        return mAntiFlicker;
+    }
+
+    /**
+     * @return true if it is currently night, as determined by twilight
+     */
+    public boolean isNight() {
+        return mNight;
+    }
+
+    /**
+     * @return array of { R, G, B } color adjustment offsets
+     */
+    public float[] getColorAdjustment() {
+        return mColorAdjustment.clone();
+    }
+
+    /**
+     * @return HSIC object with current picture adjustment settings
+     */
+    public HSIC getPictureAdjustment() {
+        return mPictureAdjustment;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof LiveDisplayState)) {
+            return false;
+        }
+        final LiveDisplayState other = (LiveDisplayState) o;
+        return mMode == other.mMode
+                && mColorTemperature == other.mColorTemperature
+                && mDayTemperature == other.mDayTemperature
+                && mNightTemperature == other.mNightTemperature
+                && mAutoContrast == other.mAutoContrast
+                && mAutoOutdoorMode == other.mAutoOutdoorMode
+                && mCABC == other.mCABC
+                && mColorEnhancement == other.mColorEnhancement
+                && mAntiFlicker == other.mAntiFlicker
+                && mNight == other.mNight
+                && Arrays.equals(mColorAdjustment, other.mColorAdjustment)
+                && Objects.equals(
+                        mPictureAdjustment == null ? null : mPictureAdjustment.flatten(),
+                        other.mPictureAdjustment == null ? null :
+                                other.mPictureAdjustment.flatten());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(mMode, mColorTemperature, mDayTemperature, mNightTemperature,
+                mAutoContrast, mAutoOutdoorMode, mCABC, mColorEnhancement, mAntiFlicker,
+                mNight, Arrays.hashCode(mColorAdjustment));
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("mode=").append(mMode);
+        sb.append(" colorTemperature=").append(mColorTemperature);
+        sb.append(" dayTemperature=").append(mDayTemperature);
+        sb.append(" nightTemperature=").append(mNightTemperature);
+        sb.append(" autoContrast=").append(mAutoContrast);
+        sb.append(" autoOutdoorMode=").append(mAutoOutdoorMode);
+        sb.append(" cabc=").append(mCABC);
+        sb.append(" colorEnhancement=").append(mColorEnhancement);
+        sb.append(" antiFlicker=").append(mAntiFlicker);
+        sb.append(" night=").append(mNight);
+        sb.append(" colorAdjustment=").append(Arrays.toString(mColorAdjustment));
+        sb.append(" pictureAdjustment=").append(mPictureAdjustment);
+        return sb.toString();
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel out, int flags) {
+        // Tell the concierge to prepare the parcel
+        ParcelInfo parcelInfo = Concierge.prepareParcel(out);
+
+        // ==== ILAMA =====
+        out.writeInt(mMode);
+        out.writeInt(mColorTemperature);
+        out.writeInt(mDayTemperature);
+        out.writeInt(mNightTemperature);
+        out.writeInt(mAutoContrast ? 1 : 0);
+        out.writeInt(mAutoOutdoorMode ? 1 : 0);
+        out.writeInt(mCABC ? 1 : 0);
+        out.writeInt(mColorEnhancement ? 1 : 0);
+        out.writeInt(mAntiFlicker ? 1 : 0);
+        out.writeInt(mNight ? 1 : 0);
+        out.writeFloatArray(mColorAdjustment);
+        if (mPictureAdjustment != null) {
+            out.writeInt(1);
+            mPictureAdjustment.writeToParcel(out, flags);
+        } else {
+            out.writeInt(0);
+        }
+
+        // Complete the parcel info for the concierge
+        parcelInfo.complete();
+    }
+
+    /** @hide */
+    public static final Parcelable.Creator<LiveDisplayState> CREATOR =
+            new Parcelable.Creator<LiveDisplayState>() {
+        public LiveDisplayState createFromParcel(Parcel in) {
+            return new LiveDisplayState(in);
+        }
+
+        @Override
+        public LiveDisplayState[] newArray(int size) {
+            return new LiveDisplayState[size];
+        }
+    };
+
+    /**
+     * Builder for LiveDisplayState. Start from a state returned by
+     * {@link LiveDisplayManager#getState()} and change the values
+     * which should be applied with {@link LiveDisplayManager#setState(LiveDisplayState)}.
+     */
+    public static final class Builder {
+        private int mMode = MODE_OFF;
+        private int mColorTemperature = -1;
+        private int mDayTemperature = -1;
+        private int mNightTemperature = -1;
+        private boolean mAutoContrast;
+        private boolean mAutoOutdoorMode;
+        private boolean mCABC;
+        private boolean mColorEnhancement;
+        private boolean mAntiFlicker;
+        private boolean mNight;
+        private float[] mColorAdjustment = new float[] { 1.0f, 1.0f, 1.0f };
+        private HSIC mPictureAdjustment;
+
+        public Builder() {
+        }
+
+        public Builder(LiveDisplayState state) {
+            mMode = state.mMode;
+            mColorTemperature = state.mColorTemperature;
+            mDayTemperature = state.mDayTemperature;
+            mNightTemperature = state.mNightTemperature;
+            mAutoContrast = state.mAutoContrast;
+            mAutoOutdoorMode = state.mAutoOutdoorMode;
+            mCABC = state.mCABC;
+            mColorEnhancement = state.mColorEnhancement;
+            mAntiFlicker = state.mAntiFlicker;
+            mNight = state.mNight;
+            mColorAdjustment = state.mColorAdjustment.clone();
+            mPictureAdjustment = state.mPictureAdjustment;
+        }
+
+        public Builder setMode(int mode) {
+            mMode = mode;
+            return this;
+        }
+
+        /** @hide */
+        public Builder setColorTemperature(int temperature) {
+            mColorTemperature = temperature;
+            return this;
+        }
+
+        public Builder setDayColorTemperature(int temperature) {
+            mDayTemperature = temperature;
+            return this;
+        }
+
+        public Builder setNightColorTemperature(int temperature) {
+            mNightTemperature = temperature;
+            return this;
+        }
+
+        public Builder setAutoContrastEnabled(boolean enabled) {
+            mAutoContrast = enabled;
+            return this;
+        }
+
+        public Builder setAutomaticOutdoorModeEnabled(boolean enabled) {
+            mAutoOutdoorMode = enabled;
+            return this;
+        }
+
+        public Builder setCABCEnabled(boolean enabled) {
+            mCABC = enabled;
+            return this;
+        }
+
+        public Builder setColorEnhancementEnabled(boolean enabled) {
+            mColorEnhancement = enabled;
+            return this;
+        }
+
+        public Builder setAntiFlickerEnabled(boolean enabled) {
+            mAntiFlicker = enabled;
+            return this;
+        }
+
+        /** @hide */
+        public Builder setNight(boolean night) {
+            mNight = night;
+            return this;
+        }
+
+        public Builder setColorAdjustment(float[] adj) {
+            mColorAdjustment = adj.clone();
+            return this;
+        }
+
+        public Builder setPictureAdjustment(HSIC hsic) {
+            mPictureAdjustment = hsic;
+            return this;
+        }
+
+        public LiveDisplayState build() {
+            return new LiveDisplayState(this);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lineageos.health;
+
+import static lineageos.health.HealthInterface.MODE_NONE;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.Objects;
+
+import lineageos.os.Build;
+import lineageos.os.Concierge;
+import lineageos.os.Concierge.ParcelInfo;
+
+/**
+ * Holder class for a snapshot of the charging control configuration
+ * and of the reason charging is currently held back, if any.
+ */
+public class ChargingControlState implements Parcelable {
+
+    /**
+     * Charging is not held back
+     */
+    public static final int STOP_REASON_NONE = 0;
+
+    /**
+     * Charging stopped because the battery reached the configured limit
+     */
+    public static final int STOP_REASON_LIMIT = 1 << 0;
+
+    /**
+     * Charging stopped to finish just in time for the target time
+     */
+    public static final int STOP_REASON_WAITING = 1 << 1;
+
+    private final boolean mEnabled;
+    private final int mMode;
+    private final int mStartTime;
+    private final int mTargetTime;
+    private final int mLimit;
+    private final int mStopReason;
+
+    /** @hide */
+    public ChargingControlState(boolean enabled, int mode, int startTime, int targetTime,
+            int limit, int stopReason) {
+        mEnabled = enabled;
+        mMode = mode;
+        mStartTime = startTime;
+        mTargetTime = targetTime;
+        mLimit = limit;
+        mStopReason = stopReason;
+    }
+
+    private ChargingControlState(Parcel parcel) {
+        // Read parcelable version via the Concierge
+        ParcelInfo parcelInfo = Concierge.receiveParcel(parcel);
+        int parcelableVersion = parcelInfo.getParcelVersion();
+
+        // temp vars
+        boolean enabled = false;
+        int mode = MODE_NONE;
+        int startTime = 0;
+        int targetTime = 0;
+        int limit = 100;
+        int stopReason = STOP_REASON_NONE;
+
+        if (parcelableVersion >= Build.LINEAGE_VERSION_CODES.ILAMA) {
+            enabled = parcel.readInt() == 1;
+            mode = parcel.readInt();
+            startTime = parcel.readInt();
+            targetTime = parcel.readInt();
+            limit = parcel.readInt();
+            stopReason = parcel.readInt();
+        }
+
+        // set temps
+        mEnabled = enabled;
+        mMode = mode;
+        mStartTime = startTime;
+        mTargetTime = targetTime;
+        mLimit = limit;
+        mStopReason = stopReason;
+
+        // Complete parcel info for the concierge
+        parcelInfo.complete();
+    }
+
+    /**
+     * @return whether charging control has been enabled
+     */
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * @return id of the charging control mode
+     */
+    public int getMode() {
+        return mMode;
+    }
+
+    /**
+     * @return the seconds of the day of the start time
+     */
+    public int getStartTime() {
+        return mStartTime;
+    }
+
+    /**
+     * @return the seconds of the day of the target time
+     */
+    public int getTargetTime() {
+        return mTargetTime;
+    }
+
+    /**
+     * @return the charging control limit
+     */
+    public int getLimit() {
+        return mLimit;
+    }
+
+    /**
+     * @return bitmask of the STOP_REASON_* reasons charging is held back for
+     */
+    public int getStopReason() {
+        return mStopReason;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ChargingControlState)) {
+            return false;
+        }
+        final ChargingControlState other = (ChargingControlState) o;
+        return mEnabled == other.mEnabled
+                && mMode == other.mMode
+                && mStartTime == other.mStartTime
+                && mTargetTime == other.mTargetTime
+                && mLimit == other.mLimit
+                && mStopReason == other.mStopReason;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(mEnabled, mMode, mStartTime, mTargetTime, mLimit, mStopReason);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("enabled=").append(mEnabled);
+        sb.append(" mode=").append(mMode);
+        sb.append(" startTime=").append(mStartTime);
+        sb.append(" targetTime=").append(mTargetTime);
+        sb.append(" limit=").append(mLimit);
+        sb.append(" stopReason=").append(mStopReason);
+        return sb.toString();
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel out, int flags) {
+        // Tell the concierge to prepare the parcel
+        ParcelInfo parcelInfo = Concierge.prepareParcel(out);
+
+        // ==== ILAMA =====
+        out.writeInt(mEnabled ? 1 : 0);
+        out.writeInt(mMode);
+        out.writeInt(mStartTime);
+        out.writeInt(mTargetTime);
+        out.writeInt(mLimit);
+        out.writeInt(mStopReason);
+
+        // Complete the parcel info for the concierge
+        parcelInfo.complete();
+    }
+
+    /** @hide */
+    public static final Parcelable.Creator<ChargingControlState> CREATOR =
+            new Parcelable.Creator<ChargingControlState>() {
+        public ChargingControlState createFromParcel(Parcel in) {
+            return new ChargingControlState(in);
+        }
+
+        @Override
+        public ChargingControlState[] newArray(int size) {
+            return new ChargingControlState[size];
+        }
+    };
+}
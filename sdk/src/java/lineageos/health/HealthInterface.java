@@ -17,11 +17,15 @@
 package lineageos.health;
 
 import android.content.Context;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.RemoteException;
 import android.os.ServiceManager;
 import android.util.Log;
 
+import java.util.ArrayList;
+
 import lineageos.app.LineageContextConstants;
 
 public class HealthInterface {
@@ -50,6 +54,44 @@ public class HealthInterface {
     private static HealthInterface sInstance;
     private Context mContext;
 
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ArrayList<ChargingControlListener> mListeners =
+            new ArrayList<ChargingControlListener>();
+    private ChargingControlState mLastState;
+
+    /**
+     * Callback for changes to the charging control state.
+     */
+    public interface ChargingControlListener {
+        /**
+         * Called on the main thread whenever the charging control configuration
+         * or stop reason changes, and once with the current state after registration.
+         *
+         * @param state the new state
+         */
+        void onChargingControlStateChanged(ChargingControlState state);
+    }
+
+    private final IChargingControlStateListener mStateListener =
+            new IChargingControlStateListener.Stub() {
+        @Override
+        public void onStateChanged(final ChargingControlState state) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    final ArrayList<ChargingControlListener> listeners;
+                    synchronized (mListeners) {
+                        mLastState = state;
+                        listeners = new ArrayList<ChargingControlListener>(mListeners);
+                    }
+                    for (ChargingControlListener listener : listeners) {
+                        listener.onChargingControlStateChanged(state);
+                    }
+                }
+            });
+        }
+    };
+
     private HealthInterface(Context context) {
         Context appContext = context.getApplicationContext();
         mContext = appContext == null ? context : appContext;
@@ -294,4 +336,72 @@ public class HealthInterface {
             return false;
         }
     }
+
+    /**
+     * Returns a snapshot of the whole charging control state in one call
+     *
+     * @return the current state, or null if the service is not available
+     */
+    public ChargingControlState getChargingControlState() {
+        try {
+            return checkService() ? sService.getChargingControlState() : null;
+        } catch (RemoteException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Registers a listener to be told about charging control state changes,
+     * so clients can cache the state instead of polling for it.
+     *
+     * @param listener
+     */
+    public void addChargingControlListener(final ChargingControlListener listener) {
+        synchronized (mListeners) {
+            if (mListeners.contains(listener)) {
+                return;
+            }
+            mListeners.add(listener);
+            if (mListeners.size() > 1) {
+                // Already registered with the service, replay the cached state
+                final ChargingControlState state = mLastState;
+                if (state != null) {
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onChargingControlStateChanged(state);
+                        }
+                    });
+                }
+                return;
+            }
+        }
+        try {
+            if (checkService()) {
+                sService.registerChargingControlStateListener(mStateListener);
+            }
+        } catch (RemoteException e) {
+        }
+    }
+
+    /**
+     * Unregisters a listener added with
+     * {@link #addChargingControlListener(ChargingControlListener)}.
+     *
+     * @param listener
+     */
+    public void removeChargingControlListener(ChargingControlListener listener) {
+        synchronized (mListeners) {
+            if (!mListeners.remove(listener) || !mListeners.isEmpty()) {
+                return;
+            }
+            mLastState = null;
+        }
+        try {
+            if (checkService()) {
+                sService.unregisterChargingControlStateListener(mStateListener);
+            }
+        } catch (RemoteException e) {
+        }
+    }
 }
@@ -33,11 +33,107 @@ import java.util.Comparator;
  */
 public class ColorUtils {
 
+    // The size Palette.Builder scales bitmaps down to. Icons up to this size are
+    // sampled directly, with the same result as a Palette.
+    private static final int ALERT_COLOR_SAMPLE_DIMENSION = 192;
+
     private static int[] SOLID_COLORS = new int[] {
         Color.RED, 0xFFFFA500, Color.YELLOW, Color.GREEN, Color.CYAN,
         Color.BLUE, Color.MAGENTA, Color.WHITE, Color.BLACK
     };
 
+    /**
+     * Lookup table of the nearest solid color for RGB quantized to 5 bits per channel,
+     * holding an index into SOLID_COLORS, or -1 where the nearest color changes within
+     * the cell and the exact search is needed.
+     */
+    private static final class SolidColorTable {
+        private static final int BITS = 5;
+        private static final int SIZE = 1 << BITS;
+        private static final int STEP = 256 / SIZE;
+        // Cells whose channels differ by at most this many cells are close to gray
+        private static final int GRAY_CELLS = 4;
+
+        static final float[][] SOLID_COLORS_LAB = new float[SOLID_COLORS.length][3];
+        static final byte[] TABLE = new byte[SIZE * SIZE * SIZE];
+
+        static {
+            for (int i = 0; i < SOLID_COLORS.length; i++) {
+                convertRGBtoLAB(SOLID_COLORS[i], SOLID_COLORS_LAB[i]);
+            }
+
+            // Nearest color of every cell corner, with the last corner at 255
+            final int points = SIZE + 1;
+            final byte[] corners = new byte[points * points * points];
+            final float[] lab = new float[3];
+            for (int r = 0; r < points; r++) {
+                for (int g = 0; g < points; g++) {
+                    for (int b = 0; b < points; b++) {
+                        convertRGBtoLAB(Color.rgb(toChannel(r), toChannel(g), toChannel(b)), lab);
+                        corners[(r * points + g) * points + b] = (byte) findNearestIndex(lab);
+                    }
+                }
+            }
+
+            // The nearest color of a cell is known if it is the same on every corner.
+            // Close to gray, where hue is unstable, the borders between colors aren't
+            // smooth, so the corners of the neighboring cells have to agree as well.
+            for (int r = 0; r < SIZE; r++) {
+                for (int g = 0; g < SIZE; g++) {
+                    for (int b = 0; b < SIZE; b++) {
+                        final int margin = Math.max(r, Math.max(g, b))
+                                - Math.min(r, Math.min(g, b)) <= GRAY_CELLS ? 1 : 0;
+                        TABLE[(r << (2 * BITS)) | (g << BITS) | b] = (byte) findUniformIndex(
+                                corners, points, r - margin, g - margin, b - margin,
+                                r + 2 + margin, g + 2 + margin, b + 2 + margin);
+                    }
+                }
+            }
+        }
+
+        private static int findUniformIndex(byte[] corners, int points,
+                int r0, int g0, int b0, int r1, int g1, int b1) {
+            final int index = corners[(Math.max(r0, 0) * points + Math.max(g0, 0)) * points
+                    + Math.max(b0, 0)];
+            for (int r = Math.max(r0, 0); r < Math.min(r1, points); r++) {
+                for (int g = Math.max(g0, 0); g < Math.min(g1, points); g++) {
+                    for (int b = Math.max(b0, 0); b < Math.min(b1, points); b++) {
+                        if (corners[(r * points + g) * points + b] != index) {
+                            return -1;
+                        }
+                    }
+                }
+            }
+            return index;
+        }
+
+        private static int toChannel(int point) {
+            return Math.min(point * STEP, 255);
+        }
+
+        static int findNearestIndex(float[] lab) {
+            int nearest = 0;
+            double closest = Double.MAX_VALUE;
+            for (int i = 0; i < SOLID_COLORS_LAB.length; i++) {
+                final float[] cl = SOLID_COLORS_LAB[i];
+                final double deltaE = calculateDeltaE(lab[0], lab[1], lab[2],
+                                                      cl[0], cl[1], cl[2]);
+                if (deltaE < closest) {
+                    nearest = i;
+                    closest = deltaE;
+                }
+            }
+            return nearest;
+        }
+
+        static int lookup(int rgb) {
+            final int shift = 8 - BITS;
+            return TABLE[((Color.red(rgb) >> shift) << (2 * BITS))
+                    | ((Color.green(rgb) >> shift) << BITS)
+                    | (Color.blue(rgb) >> shift)];
+        }
+    }
+
     /**
      * Drop the alpha component from an RGBA packed int and return
      * a non sign-extended RGB int.
@@ -58,6 +154,18 @@ public class ColorUtils {
      */
     public static float[] convertRGBtoLAB(int rgb) {
         float[] lab = new float[3];
+        convertRGBtoLAB(rgb, lab);
+        return lab;
+    }
+
+    /**
+     * Same as {@link #convertRGBtoLAB(int)}, but stores the Lab values in
+     * the given array instead of allocating a new one
+     *
+     * @param rgb A 32-bit value of packed RGB ints
+     * @param lab array of size 3 (at least) to store the Lab values in
+     */
+    public static void convertRGBtoLAB(int rgb, float[] lab) {
         float fx, fy, fz;
         float eps = 216.f / 24389.f;
         float k = 24389.f / 27.f;
@@ -118,8 +226,6 @@ public class ColorUtils {
         lab[0] = (2.55f * Ls + .5f);
         lab[1] = (as + .5f);
         lab[2] = (bs + .5f);
-
-        return lab;
     }
 
     /**
@@ -206,9 +312,10 @@ public class ColorUtils {
         double closest = Double.MAX_VALUE;
 
         float[] original = convertRGBtoLAB(rgb);
+        float[] cl = new float[3];
 
         for (int i = 0; i < colors.length; i++) {
-            float[] cl = convertRGBtoLAB(colors[i]);
+            convertRGBtoLAB(colors[i], cl);
             double deltaE = calculateDeltaE(original[0], original[1], original[2],
                                             cl[0], cl[1], cl[2]);
             if (deltaE < closest) {
@@ -225,11 +332,19 @@ public class ColorUtils {
      * LED notification lights which may not be able to display the full range
      * of colors due to hardware limitations.
      *
+     * Most colors are answered from a lookup table, which is built on first use.
+     *
      * @param rgb
      * @return the perceptually nearest color in RGB
      */
     public static int findPerceptuallyNearestSolidColor(int rgb) {
-        return findPerceptuallyNearestColor(rgb, SOLID_COLORS);
+        int index = SolidColorTable.lookup(rgb);
+        if (index < 0) {
+            float[] lab = new float[3];
+            convertRGBtoLAB(rgb, lab);
+            index = SolidColorTable.findNearestIndex(lab);
+        }
+        return SOLID_COLORS[index];
     }
 
     /**
@@ -282,22 +397,33 @@ public class ColorUtils {
         }
 
         if (bitmap != null) {
-            Palette p = Palette.from(bitmap).generate();
-            if (p == null) {
-                return alertColor;
+            final int[] colors = new int[2];
+            final boolean hasDominantColor;
+            if (Math.max(bitmap.getWidth(), bitmap.getHeight())
+                    <= ALERT_COLOR_SAMPLE_DIMENSION) {
+                hasDominantColor = Palette.generateColors(bitmap,
+                        ALERT_COLOR_SAMPLE_DIMENSION, Color.WHITE, colors);
+            } else {
+                // Sampling would pick other pixels than scaling does
+                final Palette p = Palette.from(bitmap).generate();
+                final Palette.Swatch dominantSwatch = getDominantSwatch(p);
+                hasDominantColor = dominantSwatch != null;
+                if (hasDominantColor) {
+                    colors[Palette.COLOR_DOMINANT] = dominantSwatch.getRgb();
+                }
+                colors[Palette.COLOR_VIBRANT] = p.getVibrantColor(Color.WHITE);
             }
 
             // First try the dominant color
-            final Palette.Swatch dominantSwatch = getDominantSwatch(p);
             int iconColor = alertColor;
-            if (dominantSwatch != null) {
-                iconColor = dominantSwatch.getRgb();
+            if (hasDominantColor) {
+                iconColor = colors[Palette.COLOR_DOMINANT];
                 alertColor = findPerceptuallyNearestSolidColor(iconColor);
             }
 
             // Try the most saturated color if we got white or black (boring)
             if (alertColor == Color.BLACK || alertColor == Color.WHITE) {
-                iconColor = p.getVibrantColor(Color.WHITE);
+                iconColor = colors[Palette.COLOR_VIBRANT];
                 alertColor = findPerceptuallyNearestSolidColor(iconColor);
             }
 
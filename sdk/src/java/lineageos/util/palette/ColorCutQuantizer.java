@@ -27,6 +27,8 @@ import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * An color quantizer based on the Median-cut algorithm, but optimized for picking out distinct
@@ -55,6 +57,16 @@ final class ColorCutQuantizer {
     private static final int QUANTIZE_WORD_WIDTH = 5;
     private static final int QUANTIZE_WORD_MASK = (1 << QUANTIZE_WORD_WIDTH) - 1;
 
+    /** Size of a histogram of quantized colors */
+    static final int HISTOGRAM_SIZE = 1 << (QUANTIZE_WORD_WIDTH * 3);
+
+    // Images with fewer pixels, such as icons or resized bitmaps, are histogrammed on the
+    // calling thread. Larger ones, which are only passed in with resizing disabled, are
+    // split into chunks that are histogrammed in parallel, each big enough to be worth the
+    // cost of its own histogram.
+    private static final int PARALLEL_HISTOGRAM_MIN_PIXELS = 512 * 512;
+    private static final int PARALLEL_HISTOGRAM_MIN_CHUNK = 64 * 1024;
+
     final int[] mColors;
     final int[] mHistogram;
     final List<Swatch> mQuantizedColors;
@@ -71,21 +83,17 @@ final class ColorCutQuantizer {
      * @param filters Set of filters to use in the quantization stage
      */
     ColorCutQuantizer(final int[] pixels, final int maxColors, final Palette.Filter[] filters) {
+        this(buildHistogram(pixels), filters, maxColors);
+    }
+
+    /**
+     * Create a quantizer from a histogram of quantized colors, see {@link #fromHistogram}.
+     */
+    private ColorCutQuantizer(final int[] hist, final Palette.Filter[] filters,
+            final int maxColors) {
         mTimingLogger = LOG_TIMINGS ? new TimingLogger(LOG_TAG, "Creation") : null;
         mFilters = filters;
-
-        final int[] hist = mHistogram = new int[1 << (QUANTIZE_WORD_WIDTH * 3)];
-        for (int i = 0; i < pixels.length; i++) {
-            final int quantizedColor = quantizeFromRgb888(pixels[i]);
-            // Now update the pixel value to the quantized value
-            pixels[i] = quantizedColor;
-            // And update the histogram
-            hist[quantizedColor]++;
-        }
-
-        if (LOG_TIMINGS) {
-            mTimingLogger.addSplit("Histogram created");
-        }
+        mHistogram = hist;
 
         // Now let's count the number of distinct colors
         int distinctColorCount = 0;
@@ -139,6 +147,79 @@ final class ColorCutQuantizer {
         }
     }
 
+    /**
+     * Create a quantizer from a histogram of {@link #HISTOGRAM_SIZE} entries, indexed by
+     * colors quantized with {@link #quantizeFromRgb888(int)}. The histogram is only used
+     * while the quantizer is created, which sets the population of ignored colors to 0,
+     * so it can be cleared and reused afterwards.
+     *
+     * @param histogram population of each quantized color
+     * @param maxColors The maximum number of colors that should be in the result palette.
+     * @param filters Set of filters to use in the quantization stage
+     */
+    static ColorCutQuantizer fromHistogram(final int[] histogram, final int maxColors,
+            final Palette.Filter[] filters) {
+        return new ColorCutQuantizer(histogram, filters, maxColors);
+    }
+
+    private static int[] buildHistogram(final int[] pixels) {
+        final ForkJoinPool pool = ForkJoinPool.commonPool();
+        if (pixels.length < PARALLEL_HISTOGRAM_MIN_PIXELS || pool.getParallelism() < 2) {
+            return buildHistogram(pixels, 0, pixels.length);
+        }
+        // Counting is commutative, so the merged histogram is the same as a sequential one
+        final int chunkSize = Math.max(PARALLEL_HISTOGRAM_MIN_CHUNK,
+                pixels.length / (pool.getParallelism() * 2));
+        return pool.invoke(new HistogramTask(pixels, 0, pixels.length, chunkSize));
+    }
+
+    private static int[] buildHistogram(final int[] pixels, final int from, final int to) {
+        final int[] hist = new int[HISTOGRAM_SIZE];
+        for (int i = from; i < to; i++) {
+            final int quantizedColor = quantizeFromRgb888(pixels[i]);
+            // Now update the pixel value to the quantized value
+            pixels[i] = quantizedColor;
+            // And update the histogram
+            hist[quantizedColor]++;
+        }
+        return hist;
+    }
+
+    /**
+     * Builds the histogram of a range of pixels by splitting it in halves until they are
+     * no larger than the chunk size, and adding up the histograms of the halves.
+     */
+    private static final class HistogramTask extends RecursiveTask<int[]> {
+        private final int[] mPixels;
+        private final int mFrom;
+        private final int mTo;
+        private final int mChunkSize;
+
+        HistogramTask(int[] pixels, int from, int to, int chunkSize) {
+            mPixels = pixels;
+            mFrom = from;
+            mTo = to;
+            mChunkSize = chunkSize;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (mTo - mFrom <= mChunkSize) {
+                return buildHistogram(mPixels, mFrom, mTo);
+            }
+
+            final int middle = (mFrom + mTo) >>> 1;
+            final HistogramTask left = new HistogramTask(mPixels, mFrom, middle, mChunkSize);
+            left.fork();
+            final int[] hist = new HistogramTask(mPixels, middle, mTo, mChunkSize).compute();
+            final int[] leftHist = left.join();
+            for (int i = 0; i < hist.length; i++) {
+                hist[i] += leftHist[i];
+            }
+            return hist;
+        }
+    }
+
     /**
      * @return the list of quantized colors
      */
@@ -461,7 +542,7 @@ final class ColorCutQuantizer {
     /**
      * Quantized a RGB888 value to have a word width of {@value #QUANTIZE_WORD_WIDTH}.
      */
-    private static int quantizeFromRgb888(int color) {
+    static int quantizeFromRgb888(int color) {
         int r = modifyWordWidth(Color.red(color), 8, QUANTIZE_WORD_WIDTH);
         int g = modifyWordWidth(Color.green(color), 8, QUANTIZE_WORD_WIDTH);
         int b = modifyWordWidth(Color.blue(color), 8, QUANTIZE_WORD_WIDTH);
@@ -27,6 +27,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
 /**
  * A helper class to extract prominent colors from an image.
@@ -55,7 +58,7 @@ import java.util.List;
  * Palette p = Palette.from(bitmap).generate();
  *
  * // Asynchronous
- * Palette.from(bitmap).generate(new PaletteAsyncListener() {
+ * Palette.from(bitmap).generate(executor, new PaletteAsyncListener() {
  *     public void onGenerated(Palette p) {
  *         // Use generated instance
  *     }
@@ -67,8 +70,7 @@ import java.util.List;
 public final class Palette {
 
     /**
-     * Listener to be used with {@link #generateAsync(Bitmap, PaletteAsyncListener)} or
-     * {@link #generateAsync(Bitmap, int, PaletteAsyncListener)}
+     * Listener to be used with {@link Builder#generate(Executor, PaletteAsyncListener)}
      */
     public interface PaletteAsyncListener {
 
@@ -87,6 +89,36 @@ public final class Palette {
     private static final String LOG_TAG = "Palette";
     private static final boolean LOG_TIMINGS = false;
 
+    /**
+     * Index of the dominant color in the colors returned by
+     * {@link #generateColors(Bitmap, int, int, int[])}
+     */
+    public static final int COLOR_DOMINANT = 0;
+
+    /**
+     * Index of the vibrant color in the colors returned by
+     * {@link #generateColors(Bitmap, int, int, int[])}
+     */
+    public static final int COLOR_VIBRANT = 1;
+
+    /**
+     * Buffers of {@link #generateColors(Bitmap, int, int, int[])}, which are reused
+     * by every call on the same thread. Wider rows are read in parts, so that the buffers
+     * don't grow with the bitmaps passed in.
+     */
+    private static final ThreadLocal<int[]> sHistogram = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[ColorCutQuantizer.HISTOGRAM_SIZE];
+        }
+    };
+    private static final ThreadLocal<int[]> sRowPixels = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[DEFAULT_RESIZE_BITMAP_MAX_DIMENSION];
+        }
+    };
+
     /**
      * Start generating a {@link Palette} with the returned {@link Builder} instance.
      */
@@ -123,7 +155,7 @@ public final class Palette {
      * @deprecated Use {@link Builder} to generate the Palette.
      */
     @Deprecated
-    public static AsyncTask<Bitmap, Void, Palette> generateAsync(
+    public static Future<Palette> generateAsync(
             Bitmap bitmap, PaletteAsyncListener listener) {
         return from(bitmap).generate(listener);
     }
@@ -132,11 +164,85 @@ public final class Palette {
      * @deprecated Use {@link Builder} to generate the Palette.
      */
     @Deprecated
-    public static AsyncTask<Bitmap, Void, Palette> generateAsync(
+    public static Future<Palette> generateAsync(
             final Bitmap bitmap, final int numColors, final PaletteAsyncListener listener) {
         return from(bitmap).maximumColorCount(numColors).generate(listener);
     }
 
+    /**
+     * Find the dominant and the vibrant color of an image, without creating a {@link Palette}.
+     * <p>
+     * This is a fast path for callers which only need these two colors of a small image,
+     * such as an app icon. Rather than scaling the bitmap down and copying all of its pixels,
+     * pixels are sampled from the bitmap with a stride so that at most {@code maxDimension}
+     * pixels are taken along each side, and the histogram is reused between calls on the same
+     * thread. The default number of colors and the default filter are used, so for a bitmap
+     * no larger than {@code maxDimension} the colors are the same as those of the dominant
+     * and vibrant swatches of the {@link Palette} generated by {@link Builder}.
+     *
+     * @param bitmap the image to sample
+     * @param maxDimension the maximum number of pixels sampled along each side of the image
+     * @param defaultColor the color to return for colors which could not be found
+     * @param outColors array of size 2 (at least) which receives the colors at
+     *        {@link #COLOR_DOMINANT} and {@link #COLOR_VIBRANT}
+     * @return true if a dominant color was found
+     */
+    public static boolean generateColors(Bitmap bitmap, int maxDimension,
+            @ColorInt int defaultColor, int[] outColors) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            throw new IllegalArgumentException("Bitmap is not valid");
+        }
+        if (maxDimension <= 0) {
+            throw new IllegalArgumentException(
+                    "Minimum dimension size for resizing should should be >= 1");
+        }
+
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        final int step = (Math.max(width, height) + maxDimension - 1) / maxDimension;
+
+        final int[] row = sRowPixels.get();
+        final int[] hist = sHistogram.get();
+        final List<Swatch> swatches;
+        try {
+            for (int y = 0; y < height; y += step) {
+                int x = 0;
+                for (int start = 0; start < width; start += row.length) {
+                    final int count = Math.min(row.length, width - start);
+                    if (x >= start + count) {
+                        // No sampled pixel in this part of the row
+                        continue;
+                    }
+                    bitmap.getPixels(row, 0, count, start, y, count, 1);
+                    for (; x < start + count; x += step) {
+                        hist[ColorCutQuantizer.quantizeFromRgb888(row[x - start])]++;
+                    }
+                }
+            }
+            swatches = ColorCutQuantizer.fromHistogram(hist, DEFAULT_CALCULATE_NUMBER_COLORS,
+                    DEFAULT_FILTERS).getQuantizedColors();
+        } finally {
+            Arrays.fill(hist, 0);
+        }
+
+        // The first swatch with the highest population, like ColorUtils#getDominantSwatch()
+        Swatch dominant = null;
+        for (int i = 0; i < swatches.size(); i++) {
+            final Swatch swatch = swatches.get(i);
+            if (dominant == null || swatch.getPopulation() > dominant.getPopulation()) {
+                dominant = swatch;
+            }
+        }
+
+        final Generator generator = new DefaultGenerator();
+        generator.generate(swatches);
+        final Swatch vibrant = generator.getVibrantSwatch();
+
+        outColors[COLOR_DOMINANT] = dominant != null ? dominant.getRgb() : defaultColor;
+        outColors[COLOR_VIBRANT] = vibrant != null ? vibrant.getRgb() : defaultColor;
+        return dominant != null;
+    }
+
     private final List<Swatch> mSwatches;
     private final Generator mGenerator;
 
@@ -607,28 +713,45 @@ public final class Palette {
         }
 
         /**
-         * Generate the {@link Palette} asynchronously. The provided listener's
-         * {@link PaletteAsyncListener#onGenerated} method will be called with the palette when
-         * generated.
+         * Generate the {@link Palette} asynchronously on the default executor.
+         *
+         * @see #generate(Executor, PaletteAsyncListener)
          */
-        public AsyncTask<Bitmap, Void, Palette> generate(final PaletteAsyncListener listener) {
+        public Future<Palette> generate(final PaletteAsyncListener listener) {
             if (listener == null) {
                 throw new IllegalArgumentException("listener can not be null");
             }
+            return generate(AsyncTask.THREAD_POOL_EXECUTOR, listener);
+        }
 
-            AsyncTask<Bitmap, Void, Palette> task = new AsyncTask<Bitmap, Void, Palette>() {
-                @Override
-                protected Palette doInBackground(Bitmap... params) {
-                    return generate();
-                }
+        /**
+         * Generate the {@link Palette} asynchronously on the given executor. The provided
+         * listener's {@link PaletteAsyncListener#onGenerated} method will be called on the
+         * main thread with the palette when generated, unless the returned future is
+         * cancelled first.
+         * <p>
+         * When generating from a {@link Bitmap} with the default generator, requests for the
+         * same bitmap and options share the generation that is in flight, and recently
+         * generated palettes are reused until the bitmap is modified.
+         *
+         * @param executor the executor to generate the palette on
+         * @param listener the listener to call, or null to only use the returned future
+         * @return a future of the palette, which can be cancelled
+         */
+        public Future<Palette> generate(Executor executor, PaletteAsyncListener listener) {
+            if (executor == null) {
+                throw new IllegalArgumentException("executor can not be null");
+            }
 
+            final PaletteTasks.Key key = mBitmap != null && mGenerator == null
+                    ? new PaletteTasks.Key(mBitmap, mMaxColors, mResizeMaxDimension, mFilters)
+                    : null;
+            return PaletteTasks.generate(new Callable<Palette>() {
                 @Override
-                protected void onPostExecute(Palette colorExtractor) {
-                    listener.onGenerated(colorExtractor);
+                public Palette call() {
+                    return generate();
                 }
-            };
-            task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, mBitmap);
-            return task;
+            }, key, executor, listener);
         }
     }
 
@@ -737,4 +860,6 @@ public final class Palette {
             return hslColor[0] >= 10f && hslColor[0] <= 37f && hslColor[1] <= 0.82f;
         }
     };
+
+    private static final Filter[] DEFAULT_FILTERS = new Filter[] { DEFAULT_FILTER };
 }
@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package lineageos.util.palette;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.ArrayMap;
+import android.util.LruCache;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs asynchronous {@link Palette} generation on a caller supplied {@link Executor}.
+ * <p>
+ * Requests for the same bitmap content and options share a single generation while it
+ * is in flight, and recently generated palettes are kept in a small LRU cache, keyed by
+ * the bitmap and its generation ID so that modified bitmaps are generated again.
+ * Listeners are called on the main thread.
+ *
+ * @hide
+ */
+final class PaletteTasks {
+    private static final int CACHE_SIZE = 32;
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private static final Object sLock = new Object();
+    // Guarded by sLock
+    private static final ArrayMap<Key, Job> sInFlight = new ArrayMap<>();
+    private static final LruCache<Key, Palette> sCache = new LruCache<>(CACHE_SIZE);
+
+    private PaletteTasks() {
+        // This class is not supposed to be instantiated
+    }
+
+    /**
+     * Generate a palette on the given executor.
+     *
+     * @param generator generates the palette, on the executor
+     * @param key identifies the bitmap and options, or null if the result can't be shared
+     */
+    static Future<Palette> generate(Callable<Palette> generator, Key key, Executor executor,
+            Palette.PaletteAsyncListener listener) {
+        final Request request = new Request(listener);
+        Job job = null;
+        synchronized (sLock) {
+            if (key != null) {
+                final Palette cached = sCache.get(key);
+                if (cached != null) {
+                    request.complete(cached);
+                    return request;
+                }
+                job = sInFlight.get(key);
+            }
+            if (job != null) {
+                job.add(request);
+                return request;
+            }
+            job = new Job(generator, key);
+            job.add(request);
+            if (key != null) {
+                sInFlight.put(key, job);
+            }
+        }
+        try {
+            executor.execute(job);
+        } catch (RejectedExecutionException e) {
+            synchronized (sLock) {
+                if (key != null) {
+                    sInFlight.remove(key);
+                }
+            }
+            throw e;
+        }
+        return request;
+    }
+
+    /**
+     * Identifies the content of a bitmap and the options a palette was generated with.
+     * The bitmap itself is only weakly referenced.
+     */
+    static final class Key {
+        private final WeakReference<Bitmap> mBitmap;
+        private final int mGenerationId;
+        private final int mMaxColors;
+        private final int mResizeMaxDimension;
+        private final List<Palette.Filter> mFilters;
+        private final int mHashCode;
+
+        Key(Bitmap bitmap, int maxColors, int resizeMaxDimension, List<Palette.Filter> filters) {
+            mBitmap = new WeakReference<>(bitmap);
+            mGenerationId = bitmap.getGenerationId();
+            mMaxColors = maxColors;
+            mResizeMaxDimension = resizeMaxDimension;
+            mFilters = new ArrayList<>(filters);
+            mHashCode = ((System.identityHashCode(bitmap) * 31 + mGenerationId) * 31
+                    + maxColors) * 31 + resizeMaxDimension;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            final Bitmap bitmap = mBitmap.get();
+            return bitmap != null && bitmap == other.mBitmap.get()
+                    && mGenerationId == other.mGenerationId
+                    && mMaxColors == other.mMaxColors
+                    && mResizeMaxDimension == other.mResizeMaxDimension
+                    && mFilters.equals(other.mFilters);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+
+    /**
+     * A generation shared by all requests for the same key.
+     */
+    private static final class Job extends FutureTask<Palette> {
+        private final Key mKey;
+        // Guarded by sLock
+        private final ArrayList<Request> mRequests = new ArrayList<>();
+
+        Job(Callable<Palette> generator, Key key) {
+            super(generator);
+            mKey = key;
+        }
+
+        // Guarded by sLock
+        void add(Request request) {
+            mRequests.add(request);
+            request.mJob = this;
+        }
+
+        // Guarded by sLock
+        void remove(Request request) {
+            mRequests.remove(request);
+            // Once done, the requests were handed out already and another job
+            // may be in flight for the same key
+            if (mRequests.isEmpty() && !isDone()) {
+                // Nobody is waiting for the result anymore
+                if (mKey != null && sInFlight.get(mKey) == this) {
+                    sInFlight.remove(mKey);
+                }
+                cancel(true);
+            }
+        }
+
+        @Override
+        protected void done() {
+            Palette palette = null;
+            if (!isCancelled()) {
+                try {
+                    palette = get();
+                } catch (InterruptedException | ExecutionException e) {
+                    // Delivered to the requests through get()
+                }
+            }
+
+            final Request[] requests;
+            synchronized (sLock) {
+                if (mKey != null && sInFlight.get(mKey) == this) {
+                    sInFlight.remove(mKey);
+                }
+                if (mKey != null && palette != null) {
+                    sCache.put(mKey, palette);
+                }
+                requests = mRequests.toArray(new Request[mRequests.size()]);
+                mRequests.clear();
+            }
+            for (Request request : requests) {
+                request.complete(palette);
+            }
+        }
+    }
+
+    /**
+     * The future returned to a single caller. Cancelling it only cancels the generation
+     * once no other request waits for it.
+     */
+    private static final class Request implements Future<Palette>, Runnable {
+        private final Palette.PaletteAsyncListener mListener;
+        // Guarded by sLock
+        private Job mJob;
+        private boolean mCancelled;
+        private boolean mDone;
+        private Palette mPalette;
+
+        Request(Palette.PaletteAsyncListener listener) {
+            mListener = listener;
+        }
+
+        void complete(Palette palette) {
+            synchronized (sLock) {
+                if (mCancelled) {
+                    return;
+                }
+                mDone = true;
+                mPalette = palette;
+            }
+            if (palette != null && mListener != null) {
+                sMainHandler.post(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            synchronized (sLock) {
+                if (mCancelled) {
+                    return;
+                }
+            }
+            mListener.onGenerated(mPalette);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            synchronized (sLock) {
+                if (mCancelled) {
+                    return true;
+                }
+                if (mDone) {
+                    // Still keeps the listener from being called, if it's pending
+                    mCancelled = true;
+                    return false;
+                }
+                mCancelled = true;
+                if (mJob != null) {
+                    mJob.remove(this);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            synchronized (sLock) {
+                return mCancelled && !mDone;
+            }
+        }
+
+        @Override
+        public boolean isDone() {
+            synchronized (sLock) {
+                return mCancelled || mDone;
+            }
+        }
+
+        @Override
+        public Palette get() throws InterruptedException, ExecutionException {
+            final Job job;
+            synchronized (sLock) {
+                if (mCancelled && !mDone) {
+                    throw new CancellationException();
+                }
+                if (mDone && mPalette != null) {
+                    return mPalette;
+                }
+                job = mJob;
+            }
+            return job.get();
+        }
+
+        @Override
+        public Palette get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            final Job job;
+            synchronized (sLock) {
+                if (mCancelled && !mDone) {
+                    throw new CancellationException();
+                }
+                if (mDone && mPalette != null) {
+                    return mPalette;
+                }
+                job = mJob;
+            }
+            return job.get(timeout, unit);
+        }
+    }
+}
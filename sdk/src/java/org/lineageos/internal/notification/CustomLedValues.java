@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.internal.notification;
+
+import android.util.ArrayMap;
+import android.util.Slog;
+
+import lineageos.providers.LineageSettings;
+
+/**
+ * The per-package notification LED values chosen by the user, as stored in
+ * {@link LineageSettings.System#NOTIFICATION_LIGHT_PULSE_CUSTOM_VALUES}:
+ * "package=color;onMs;offMs" entries separated by '|'.
+ *
+ * Instances are immutable. {@link #update(String)} only parses the entries between
+ * the parts the new value has in common with the previous one, so a change to the
+ * values of a single package costs a single entry, no matter how many packages are
+ * customized.
+ *
+ * Entries are accepted exactly like String#split() based parsing did, which ignores
+ * trailing separators, e.g. "package=color;onMs;offMs;" or "package=color;onMs;offMs=".
+ */
+public final class CustomLedValues {
+    private static final String TAG = "CustomLedValues";
+
+    private static final char ENTRY_SEPARATOR = '|';
+    private static final char PACKAGE_SEPARATOR = '=';
+    private static final char VALUE_SEPARATOR = ';';
+    private static final long INVALID_INT = Long.MIN_VALUE;
+
+    public static final CustomLedValues EMPTY =
+            new CustomLedValues("", new ArrayMap<String, LedValues>(), false);
+
+    private final String mValues;
+    private final ArrayMap<String, LedValues> mLedValues;
+    // Whether a package has more than one valid entry. The last one wins then,
+    // and the entries can't be replaced one by one anymore.
+    private final boolean mHasDuplicates;
+
+    private CustomLedValues(String values, ArrayMap<String, LedValues> ledValues,
+            boolean hasDuplicates) {
+        mValues = values;
+        mLedValues = ledValues;
+        mHasDuplicates = hasDuplicates;
+    }
+
+    public static CustomLedValues parse(String values) {
+        return EMPTY.update(values);
+    }
+
+    public LedValues get(String packageName) {
+        return mLedValues.get(packageName);
+    }
+
+    public int size() {
+        return mLedValues.size();
+    }
+
+    /**
+     * Returns the values parsed from the given setting value, reusing the entries
+     * that did not change since this instance was parsed.
+     */
+    public CustomLedValues update(String values) {
+        if (values == null) {
+            values = "";
+        }
+        if (values.equals(mValues)) {
+            return this;
+        }
+        if (mHasDuplicates) {
+            return parseAll(values);
+        }
+
+        final String old = mValues;
+        final int oldLength = old.length();
+        final int newLength = values.length();
+
+        // Find the common head and tail...
+        final int maxCommon = Math.min(oldLength, newLength);
+        int head = 0;
+        while (head < maxCommon && old.charAt(head) == values.charAt(head)) {
+            head++;
+        }
+        int tail = 0;
+        while (tail < maxCommon - head && old.charAt(oldLength - 1 - tail)
+                == values.charAt(newLength - 1 - tail)) {
+            tail++;
+        }
+
+        // ...and widen the part in between to whole entries
+        final int start;
+        if (isEntryEnd(old, head) && isEntryEnd(values, head)) {
+            start = head + 1;
+        } else {
+            start = old.lastIndexOf(ENTRY_SEPARATOR, head - 1) + 1;
+        }
+        final int oldTail = oldLength - tail;
+        final int oldEnd;
+        if (isEntryStart(old, oldTail) && isEntryStart(values, newLength - tail)) {
+            oldEnd = oldTail - 1;
+        } else {
+            final int separator = old.indexOf(ENTRY_SEPARATOR, oldTail);
+            oldEnd = separator >= 0 ? separator : oldLength;
+        }
+        final int newEnd = newLength - (oldLength - oldEnd);
+
+        final ArrayMap<String, LedValues> ledValues = new ArrayMap<String, LedValues>(mLedValues);
+        for (int i = start; i < oldEnd; ) {
+            final int end = entryEnd(old, i, oldEnd);
+            // Only valid entries made it into the map, and there are no duplicates
+            final String packageName = parseEntry(old, i, end, null, false);
+            if (packageName != null) {
+                ledValues.remove(packageName);
+            }
+            i = end + 1;
+        }
+        final LedValues entry = new LedValues(0, 0, 0);
+        for (int i = start; i < newEnd; ) {
+            final int end = entryEnd(values, i, newEnd);
+            final String packageName = parseEntry(values, i, end, entry, true);
+            if (packageName != null) {
+                if (ledValues.containsKey(packageName)) {
+                    return parseAll(values);
+                }
+                ledValues.put(packageName, new LedValues(entry.getColor(),
+                        entry.getOnMs(), entry.getOffMs()));
+            }
+            i = end + 1;
+        }
+        return new CustomLedValues(values, ledValues, false);
+    }
+
+    private static CustomLedValues parseAll(String values) {
+        final ArrayMap<String, LedValues> ledValues = new ArrayMap<String, LedValues>();
+        final LedValues entry = new LedValues(0, 0, 0);
+        boolean hasDuplicates = false;
+        final int length = values.length();
+        for (int i = 0; i < length; ) {
+            final int end = entryEnd(values, i, length);
+            final String packageName = parseEntry(values, i, end, entry, true);
+            if (packageName != null) {
+                final LedValues previous = ledValues.put(packageName, new LedValues(
+                        entry.getColor(), entry.getOnMs(), entry.getOffMs()));
+                hasDuplicates |= previous != null;
+            }
+            i = end + 1;
+        }
+        return new CustomLedValues(values, ledValues, hasDuplicates);
+    }
+
+    private static int entryEnd(String values, int start, int limit) {
+        final int separator = values.indexOf(ENTRY_SEPARATOR, start);
+        return separator >= 0 && separator < limit ? separator : limit;
+    }
+
+    // Whether an entry ends at index of values
+    private static boolean isEntryEnd(String values, int index) {
+        return index == values.length() || values.charAt(index) == ENTRY_SEPARATOR;
+    }
+
+    // Whether an entry starts at index of values
+    private static boolean isEntryStart(String values, int index) {
+        return index == 0 || values.charAt(index - 1) == ENTRY_SEPARATOR;
+    }
+
+    // Returns end without the separators at its end, which split() drops
+    private static int trimTrailing(String values, int start, int end, char separator) {
+        while (end > start && values.charAt(end - 1) == separator) {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Parses the entry values[start, end).
+     *
+     * @param out receives color, onMs and offMs of a valid entry, unless null
+     * @param log whether to log invalid entries
+     * @return the package name of a valid entry, or null
+     */
+    private static String parseEntry(String values, int start, int end, LedValues out,
+            boolean log) {
+        end = trimTrailing(values, start, end, PACKAGE_SEPARATOR);
+        final int packageEnd = values.indexOf(PACKAGE_SEPARATOR, start);
+        final int extraSeparator = packageEnd >= 0
+                ? values.indexOf(PACKAGE_SEPARATOR, packageEnd + 1) : -1;
+        if (packageEnd < 0 || packageEnd >= end
+                || (extraSeparator >= 0 && extraSeparator < end)) {
+            if (log) {
+                Slog.e(TAG, "Error parsing custom led values for unknown package");
+            }
+            return null;
+        }
+
+        // color, onMs, offMs
+        final int valuesEnd = trimTrailing(values, packageEnd + 1, end, VALUE_SEPARATOR);
+        final int colorEnd = values.indexOf(VALUE_SEPARATOR, packageEnd + 1);
+        final int onMsEnd = colorEnd >= 0 ? values.indexOf(VALUE_SEPARATOR, colorEnd + 1) : -1;
+        final long color = colorEnd >= 0 && colorEnd < valuesEnd
+                ? parseInt(values, packageEnd + 1, colorEnd) : INVALID_INT;
+        final long onMs = onMsEnd >= 0 && onMsEnd < valuesEnd
+                ? parseInt(values, colorEnd + 1, onMsEnd) : INVALID_INT;
+        final long offMs = onMs != INVALID_INT
+                ? parseInt(values, onMsEnd + 1, valuesEnd) : INVALID_INT;
+        if (color == INVALID_INT || onMs == INVALID_INT || offMs == INVALID_INT) {
+            if (log) {
+                Slog.e(TAG, "Error parsing custom led values '"
+                        + values.substring(packageEnd + 1, end) + "' for "
+                        + values.substring(start, packageEnd));
+            }
+            return null;
+        }
+        if (out != null) {
+            out.setColor((int) color);
+            out.setOnMs((int) onMs);
+            out.setOffMs((int) offMs);
+        }
+        return values.substring(start, packageEnd);
+    }
+
+    // Parses the decimal int values[start, end) like Integer#parseInt(), without allocating
+    private static long parseInt(String values, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (values.charAt(i) == '-' || values.charAt(i) == '+')) {
+            negative = values.charAt(i) == '-';
+            i++;
+        }
+        if (i == end) {
+            return INVALID_INT;
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            final int digit = Character.digit(values.charAt(i), 10);
+            if (digit < 0) {
+                return INVALID_INT;
+            }
+            value = value * 10 + digit;
+            if (value > -(long) Integer.MIN_VALUE) {
+                return INVALID_INT;
+            }
+        }
+        if (negative) {
+            return -value;
+        }
+        return value <= Integer.MAX_VALUE ? value : INVALID_INT;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CustomLedValues)) {
+            return false;
+        }
+        return mLedValues.equals(((CustomLedValues) o).mLedValues);
+    }
+
+    @Override
+    public int hashCode() {
+        return mLedValues.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(mLedValues.size());
+    }
+}
@@ -0,0 +1,446 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.internal.notification;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.content.pm.ResolveInfo;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.UserHandle;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.AtomicFile;
+import android.util.Slog;
+
+import com.android.internal.os.BackgroundThread;
+
+import lineageos.util.ColorUtils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * Notification LED colors generated from app icons.
+ *
+ * Generating a color decodes and quantizes the app icon, so it is done on the
+ * background thread and the caller gets a provisional color until it is ready.
+ * Generated colors are kept on disk together with the version code of the package
+ * they were generated for, and are dropped when the package is updated or removed.
+ *
+ * Once enabled, colors are also precomputed one package at a time for launcher
+ * visible packages after boot and for packages as they are installed or updated,
+ * so that the first notification of an app rarely has to wait for its color.
+ */
+final class GeneratedLedColors {
+    private static final String TAG = "GeneratedLedColors";
+    private static final boolean DEBUG = false;
+
+    private static final int FILE_VERSION = 1;
+    // Coalesce the writes of a burst of newly generated colors
+    private static final long SAVE_DELAY_MS = 10 * 1000;
+
+    public interface Listener {
+        // Called on the background thread once the color of a package is ready
+        public void onColorGenerated(String packageName);
+    }
+
+    private static final class Entry {
+        final long versionCode;
+        final int color;
+        // Whether it was generated ahead of time, for the counters only
+        final boolean precomputed;
+
+        Entry(long versionCode, int color, boolean precomputed) {
+            this.versionCode = versionCode;
+            this.color = color;
+            this.precomputed = precomputed;
+        }
+    }
+
+    private final Context mContext;
+    private final Listener mListener;
+    private final Handler mHandler = BackgroundThread.getHandler();
+    private final AtomicFile mFile = new AtomicFile(
+            new File(Environment.getDataSystemDirectory(), "notification_led_colors"));
+
+    private final Object mLock = new Object();
+    // Guarded by mLock
+    private final ArrayMap<String, Entry> mColors = new ArrayMap<String, Entry>();
+    private final ArraySet<String> mPending = new ArraySet<String>();
+    private final ArrayDeque<String> mPrecomputeQueue = new ArrayDeque<String>();
+    private boolean mPrecomputeEnabled;
+    private boolean mBootCompleted;
+    private boolean mBootPrecomputeDone;
+    private int mHits;
+    private int mPrecomputedHits;
+    private int mMisses;
+    private int mGenerated;
+    private int mInvalidated;
+    private int mPrecomputeQueued;
+    private int mPrecomputed;
+
+    private final Runnable mPrecomputeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            precomputeNext();
+        }
+    };
+
+    private final Runnable mSaveRunnable = new Runnable() {
+        @Override
+        public void run() {
+            save();
+        }
+    };
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final Uri data = intent.getData();
+            if (data == null) {
+                return;
+            }
+            final String packageName = data.getSchemeSpecificPart();
+            final String action = intent.getAction();
+            if (intent.getBooleanExtra(Intent.EXTRA_REPLACING, false)
+                    && !Intent.ACTION_PACKAGE_REPLACED.equals(action)) {
+                // Handled by the PACKAGE_REPLACED that follows
+                return;
+            }
+            if (!Intent.ACTION_PACKAGE_ADDED.equals(action)) {
+                invalidate(packageName);
+            }
+            if (!Intent.ACTION_PACKAGE_REMOVED.equals(action)) {
+                precompute(packageName);
+            }
+        }
+    };
+
+    private final BroadcastReceiver mBootReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            mContext.unregisterReceiver(this);
+            synchronized (mLock) {
+                mBootCompleted = true;
+            }
+            precomputeLauncherPackages();
+        }
+    };
+
+    GeneratedLedColors(Context context, Listener listener) {
+        mContext = context;
+        mListener = listener;
+
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addDataScheme("package");
+        mContext.registerReceiverAsUser(mPackageReceiver, UserHandle.ALL, filter, null, mHandler);
+        mContext.registerReceiver(mBootReceiver,
+                new IntentFilter(Intent.ACTION_BOOT_COMPLETED), null, mHandler);
+
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    /**
+     * @return the color generated for the package, or defaultColor if it isn't
+     *         ready yet, in which case the listener is called once it is
+     */
+    int getColor(String packageName, int defaultColor) {
+        synchronized (mLock) {
+            final Entry entry = mColors.get(packageName);
+            if (entry != null) {
+                mHits++;
+                if (entry.precomputed) {
+                    mPrecomputedHits++;
+                }
+                return entry.color;
+            }
+            mMisses++;
+            schedule(packageName);
+        }
+        return defaultColor;
+    }
+
+    // Guarded by mLock
+    private void schedule(final String packageName) {
+        if (!mPending.add(packageName)) {
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                generate(packageName, false);
+            }
+        });
+    }
+
+    /**
+     * Whether colors are generated at all and thus worth precomputing.
+     * Precomputing launcher visible packages starts once this is enabled after boot.
+     */
+    void setPrecomputeEnabled(boolean enabled) {
+        synchronized (mLock) {
+            if (mPrecomputeEnabled == enabled) {
+                return;
+            }
+            mPrecomputeEnabled = enabled;
+            if (!enabled) {
+                mPrecomputeQueue.clear();
+                return;
+            }
+            if (!mBootCompleted) {
+                return;
+            }
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                precomputeLauncherPackages();
+            }
+        });
+    }
+
+    private void precomputeLauncherPackages() {
+        synchronized (mLock) {
+            if (!mPrecomputeEnabled || mBootPrecomputeDone) {
+                return;
+            }
+            mBootPrecomputeDone = true;
+        }
+
+        final Intent intent = new Intent(Intent.ACTION_MAIN);
+        intent.addCategory(Intent.CATEGORY_LAUNCHER);
+        final List<ResolveInfo> infos = mContext.getPackageManager().queryIntentActivities(
+                intent, PackageManager.MATCH_DIRECT_BOOT_AWARE
+                        | PackageManager.MATCH_DIRECT_BOOT_UNAWARE);
+        for (ResolveInfo info : infos) {
+            precompute(info.activityInfo.packageName);
+        }
+    }
+
+    private void precompute(String packageName) {
+        synchronized (mLock) {
+            if (!mPrecomputeEnabled || mColors.containsKey(packageName)
+                    || mPending.contains(packageName)
+                    || mPrecomputeQueue.contains(packageName)) {
+                return;
+            }
+            mPrecomputeQueue.add(packageName);
+            mPrecomputeQueued++;
+            if (mPrecomputeQueue.size() > 1) {
+                return;
+            }
+        }
+        mHandler.removeCallbacks(mPrecomputeRunnable);
+        mHandler.post(mPrecomputeRunnable);
+    }
+
+    // One package per message, so colors needed right now don't wait for the whole queue
+    private void precomputeNext() {
+        final String packageName;
+        final boolean needed;
+        synchronized (mLock) {
+            packageName = mPrecomputeQueue.peek();
+            if (packageName == null) {
+                return;
+            }
+            needed = !mColors.containsKey(packageName) && !mPending.contains(packageName);
+        }
+        if (needed) {
+            generate(packageName, true);
+        }
+        synchronized (mLock) {
+            // Unless the queue was cleared in the meantime
+            if (mPrecomputeQueue.peek() == packageName) {
+                mPrecomputeQueue.poll();
+                mPrecomputed++;
+            }
+            if (mPrecomputeQueue.isEmpty()) {
+                return;
+            }
+        }
+        mHandler.post(mPrecomputeRunnable);
+    }
+
+    private void generate(String packageName, boolean precomputed) {
+        synchronized (mLock) {
+            if (mColors.containsKey(packageName)) {
+                // Already restored from disk or precomputed in the meantime
+                mPending.remove(packageName);
+                if (!precomputed) {
+                    mListener.onColorGenerated(packageName);
+                }
+                return;
+            }
+        }
+
+        final PackageManager pm = mContext.getPackageManager();
+        final PackageInfo info;
+        final Drawable icon;
+        try {
+            info = pm.getPackageInfo(packageName, 0);
+            icon = pm.getApplicationIcon(info.applicationInfo);
+        } catch (NameNotFoundException e) {
+            Slog.e(TAG, e.getMessage(), e);
+            synchronized (mLock) {
+                mPending.remove(packageName);
+            }
+            return;
+        }
+
+        final int color = ColorUtils.generateAlertColorFromDrawable(icon);
+        if (DEBUG) {
+            Slog.d(TAG, "Generated color " + Integer.toHexString(color) + " for " + packageName);
+        }
+
+        synchronized (mLock) {
+            mPending.remove(packageName);
+            mColors.put(packageName, new Entry(info.getLongVersionCode(), color, precomputed));
+            mGenerated++;
+        }
+        scheduleSave();
+        if (!precomputed) {
+            mListener.onColorGenerated(packageName);
+        }
+    }
+
+    private void invalidate(String packageName) {
+        synchronized (mLock) {
+            if (mColors.remove(packageName) == null) {
+                return;
+            }
+            mInvalidated++;
+        }
+        if (DEBUG) {
+            Slog.d(TAG, "Invalidated color of " + packageName);
+        }
+        scheduleSave();
+    }
+
+    private void scheduleSave() {
+        mHandler.removeCallbacks(mSaveRunnable);
+        mHandler.postDelayed(mSaveRunnable, SAVE_DELAY_MS);
+    }
+
+    private void load() {
+        final ArrayMap<String, Entry> colors = new ArrayMap<String, Entry>();
+        try (DataInputStream in = new DataInputStream(mFile.openRead())) {
+            if (in.readInt() != FILE_VERSION) {
+                return;
+            }
+            final int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                final String packageName = in.readUTF();
+                colors.put(packageName, new Entry(in.readLong(), in.readInt(), false));
+            }
+        } catch (FileNotFoundException e) {
+            return;
+        } catch (IOException e) {
+            Slog.w(TAG, "Failed to read generated colors", e);
+            return;
+        }
+
+        // Packages may have been updated or removed while we weren't looking
+        final PackageManager pm = mContext.getPackageManager();
+        boolean dirty = false;
+        for (int i = colors.size() - 1; i >= 0; i--) {
+            long versionCode;
+            try {
+                versionCode = pm.getPackageInfo(colors.keyAt(i), 0).getLongVersionCode();
+            } catch (NameNotFoundException e) {
+                versionCode = -1;
+            }
+            if (versionCode != colors.valueAt(i).versionCode) {
+                colors.removeAt(i);
+                dirty = true;
+            }
+        }
+
+        synchronized (mLock) {
+            for (int i = 0; i < colors.size(); i++) {
+                // Colors generated since boot are at least as recent
+                if (!mColors.containsKey(colors.keyAt(i))) {
+                    mColors.put(colors.keyAt(i), colors.valueAt(i));
+                }
+            }
+        }
+        if (dirty) {
+            scheduleSave();
+        }
+    }
+
+    private void save() {
+        final ArrayMap<String, Entry> colors;
+        synchronized (mLock) {
+            colors = new ArrayMap<String, Entry>(mColors);
+        }
+
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            final DataOutputStream out = new DataOutputStream(fos);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(colors.size());
+            for (int i = 0; i < colors.size(); i++) {
+                final Entry entry = colors.valueAt(i);
+                out.writeUTF(colors.keyAt(i));
+                out.writeLong(entry.versionCode);
+                out.writeInt(entry.color);
+            }
+            out.flush();
+            mFile.finishWrite(fos);
+        } catch (IOException e) {
+            Slog.w(TAG, "Failed to save generated colors", e);
+            mFile.failWrite(fos);
+        }
+    }
+
+    void dump(PrintWriter pw) {
+        synchronized (mLock) {
+            pw.println("  GeneratedLedColors: size=" + mColors.size()
+                    + " pending=" + mPending.size() + " hits=" + mHits
+                    + " misses=" + mMisses + " generated=" + mGenerated
+                    + " invalidated=" + mInvalidated);
+            pw.println("    precompute: enabled=" + mPrecomputeEnabled
+                    + " bootDone=" + mBootPrecomputeDone
+                    + " progress=" + mPrecomputed + "/" + mPrecomputeQueued
+                    + " hits=" + mPrecomputedHits);
+        }
+    }
+}
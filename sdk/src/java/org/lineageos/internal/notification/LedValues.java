@@ -113,6 +113,38 @@ public class LedValues {
         }
     }
 
+    public void set(LedValues other) {
+        mEnabled = other.mEnabled;
+        mColor = other.mColor;
+        mOnMs = other.mOnMs;
+        mOffMs = other.mOffMs;
+        mBrightness = other.mBrightness;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof LedValues)) {
+            return false;
+        }
+        final LedValues other = (LedValues) o;
+        return mEnabled == other.mEnabled && mColor == other.mColor
+                && mOnMs == other.mOnMs && mOffMs == other.mOffMs
+                && mBrightness == other.mBrightness;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mEnabled ? 1 : 0;
+        result = 31 * result + mColor;
+        result = 31 * result + mOnMs;
+        result = 31 * result + mOffMs;
+        result = 31 * result + mBrightness;
+        return result;
+    }
+
     @Override
     public String toString() {
         return "enabled=" + mEnabled + " color=#" + String.format("%08X", mColor)
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.internal.notification;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Remembers the last decision of a lights policy, so that a call with the same
+ * inputs as the previous one reuses its result instead of computing it again.
+ * It says nothing about the state of the light itself, which its owner may have
+ * changed in between.
+ *
+ * The inputs are the incoming {@link LedValues} plus a fixed number of int keys,
+ * which must include the version of the configuration the result depends on,
+ * and an optional object key.
+ *
+ * Not thread safe, the lights policies are called with their service lock held.
+ */
+final class LedValuesMemo {
+    private final int[] mKeys;
+    private final int[] mPendingKeys;
+    private Object mObjectKey;
+    private final LedValues mInput = new LedValues(0, 0, 0);
+    private final LedValues mOutput = new LedValues(0, 0, 0);
+    // Whether mOutput is the result for the current inputs
+    private boolean mValid;
+    private boolean mHasOutput;
+
+    private long mHits;
+    private long mMisses;
+
+    LedValuesMemo(int keyCount) {
+        mKeys = new int[keyCount];
+        mPendingKeys = new int[keyCount];
+    }
+
+    void setKey(int index, int value) {
+        mPendingKeys[index] = value;
+    }
+
+    /**
+     * Looks up the result for ledValues and the keys set since the last call.
+     *
+     * @return true if ledValues now holds the remembered result, false if it has to be
+     *         computed and passed to {@link #store(LedValues)}
+     */
+    boolean lookup(LedValues ledValues, Object objectKey) {
+        if (mValid && Arrays.equals(mKeys, mPendingKeys)
+                && Objects.equals(mObjectKey, objectKey) && mInput.equals(ledValues)) {
+            ledValues.set(mOutput);
+            mHits++;
+            return true;
+        }
+        mMisses++;
+        mValid = false;
+        System.arraycopy(mPendingKeys, 0, mKeys, 0, mKeys.length);
+        mObjectKey = objectKey;
+        mInput.set(ledValues);
+        return false;
+    }
+
+    /**
+     * Remembers the result computed after a failed {@link #lookup(LedValues, Object)}.
+     */
+    void store(LedValues ledValues) {
+        mOutput.set(ledValues);
+        mValid = true;
+        mHasOutput = true;
+    }
+
+    void dump(PrintWriter pw, String prefix) {
+        pw.println(prefix + "hits=" + mHits + " misses=" + mMisses);
+        if (mHasOutput) {
+            pw.println(prefix + "last={ " + mOutput + " }");
+        }
+    }
+}
@@ -24,14 +24,18 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Resources;
 import android.database.ContentObserver;
+import android.net.Uri;
 import android.os.BatteryManager;
 import android.os.Handler;
 import android.os.UserHandle;
 import android.provider.Settings.Global;
+import android.util.ArrayMap;
 import android.util.Slog;
 
 import lineageos.providers.LineageSettings;
 
+import java.io.PrintWriter;
+
 public final class LineageBatteryLights {
     private final String TAG = "LineageBatteryLights";
     private final boolean DEBUG = false;
@@ -46,20 +50,23 @@ public final class LineageBatteryLights {
     private final boolean mCanAdjustBrightness;
     private final boolean mUseSegmentedBatteryLed;
 
-    // Battery light intended operational state.
-    private boolean mLightEnabled = false; // Disable until observer is started
-    private boolean mLightFullChargeDisabled;
-    private boolean mLedPulseEnabled;
-    private int mBatteryLowARGB;
-    private int mBatteryMediumARGB;
-    private int mBatteryFullARGB;
-    private int mBatteryBrightnessLevel;
-    private int mBatteryBrightnessZenLevel;
+    // Battery light intended operational state, replaced as a whole on changes.
+    // Disabled until observer is started.
+    private volatile Config mConfig = new Config(0);
+
+    // Remembers the last result of calcLights()
+    private static final int MEMO_KEY_CONFIG_VERSION = 0;
+    private static final int MEMO_KEY_ZEN_MODE = 1;
+    private static final int MEMO_KEY_LEVEL = 2;
+    private static final int MEMO_KEY_STATUS = 3;
+    private static final int MEMO_KEY_LOW = 4;
+    private static final int MEMO_KEY_COUNT = 5;
+    private final LedValuesMemo mMemo = new LedValuesMemo(MEMO_KEY_COUNT);
 
     private final Context mContext;
 
     private NotificationManager mNotificationManager;
-    private int mZenMode;
+    private volatile int mZenMode;
 
     public interface LedUpdater {
         public void update();
@@ -97,8 +104,11 @@ public final class LineageBatteryLights {
         context.registerReceiver(new BroadcastReceiver() {
                     @Override
                     public void onReceive(Context context, Intent intent) {
-                        mZenMode = mNotificationManager.getZenMode();
-                        mLedUpdater.update();
+                        final int zenMode = mNotificationManager.getZenMode();
+                        if (zenMode != mZenMode) {
+                            mZenMode = zenMode;
+                            mLedUpdater.update();
+                        }
                     }
                 }, filter);
         mZenMode = mNotificationManager.getZenMode();
@@ -111,7 +121,46 @@ public final class LineageBatteryLights {
         return mHasBatteryLed;
     }
 
+    /**
+     * Returns the version of the battery light settings, which changes whenever
+     * any of them does.
+     */
+    public int getConfigVersion() {
+        return mConfig.version;
+    }
+
+    /**
+     * Updates ledValues according to the battery state and the battery light settings.
+     */
     public void calcLights(LedValues ledValues, int level, int status, boolean low) {
+        final Config config = mConfig;
+        final int zenMode = mZenMode;
+
+        // Apart from segmented LEDs, the level only matters around the "nearly full" steps
+        final int levelKey;
+        if (mUseSegmentedBatteryLed) {
+            levelKey = level;
+        } else if (level >= 100) {
+            levelKey = 2;
+        } else if (level >= 90) {
+            levelKey = 1;
+        } else {
+            levelKey = 0;
+        }
+        mMemo.setKey(MEMO_KEY_CONFIG_VERSION, config.version);
+        mMemo.setKey(MEMO_KEY_ZEN_MODE, zenMode);
+        mMemo.setKey(MEMO_KEY_LEVEL, levelKey);
+        mMemo.setKey(MEMO_KEY_STATUS, status);
+        mMemo.setKey(MEMO_KEY_LOW, low ? 1 : 0);
+        if (mMemo.lookup(ledValues, null)) {
+            return;
+        }
+        computeLights(ledValues, config, zenMode, level, status, low);
+        mMemo.store(ledValues);
+    }
+
+    private void computeLights(LedValues ledValues, Config config, int zenMode,
+            int level, int status, boolean low) {
         if (DEBUG) {
             Slog.i(TAG, "calcLights input:"
                     + " ledValues={ " + ledValues + " }"
@@ -122,10 +171,8 @@ public final class LineageBatteryLights {
                     + " mHALAdjustableBrightness=" + mHALAdjustableBrightness
                     + " mMultiColorBatteryLed=" + mMultiColorBatteryLed
                     + " mUseSegmentedBatteryLed=" + mUseSegmentedBatteryLed
-                    + " mBatteryBrightnessLevel=" + mBatteryBrightnessLevel
-                    + " mBatteryBrightnessZenLevel=" + mBatteryBrightnessZenLevel
-                    + " mZenMode=" + mZenMode
-                    + " mLightFullChargeDisabled=" + mLightFullChargeDisabled
+                    + " config={ " + config + " }"
+                    + " zenMode=" + zenMode
             );
         }
 
@@ -139,7 +186,7 @@ public final class LineageBatteryLights {
         ledValues.setEnabled(false);
         ledValues.setColor(0);
 
-        if (!mLightEnabled || (mLightFullChargeDisabled && isCharged)) {
+        if (!config.lightEnabled || (config.lightFullChargeDisabled && isCharged)) {
             return;
         }
 
@@ -149,31 +196,31 @@ public final class LineageBatteryLights {
         } else if (!mCanAdjustBrightness) {
             // No brightness support available
             brightness = LedValues.LIGHT_BRIGHTNESS_MAXIMUM;
-        } else if (mZenMode == Global.ZEN_MODE_OFF) {
-            brightness = mBatteryBrightnessLevel;
+        } else if (zenMode == Global.ZEN_MODE_OFF) {
+            brightness = config.batteryBrightnessLevel;
         } else {
-            brightness = mBatteryBrightnessZenLevel;
+            brightness = config.batteryBrightnessZenLevel;
         }
         ledValues.setBrightness(brightness);
 
         if (low) {
             if (status == BatteryManager.BATTERY_STATUS_CHARGING) {
                 // Battery is charging and low.
-                ledValues.setColor(mBatteryLowARGB);
+                ledValues.setColor(config.batteryLowARGB);
                 ledValues.setSolid();
-            } else if (mLedPulseEnabled) {
+            } else if (config.ledPulseEnabled) {
                 // Battery is low, not charging and pulse is enabled
                 // (pulsing values are set by frameworks BatteryService).
-                ledValues.setColor(mBatteryLowARGB);
+                ledValues.setColor(config.batteryLowARGB);
             }
         } else if (isChargingOrFull) {
             if (isCharged || level >= 90) {
                 // Battery is full or charging and nearly full.
-                ledValues.setColor(mBatteryFullARGB);
+                ledValues.setColor(config.batteryFullARGB);
                 ledValues.setSolid();
             } else {
                 // Battery is charging and not nearly full.
-                ledValues.setColor(mBatteryMediumARGB);
+                ledValues.setColor(config.batteryMediumARGB);
                 ledValues.setSolid();
             }
         }
@@ -191,8 +238,8 @@ public final class LineageBatteryLights {
             } else if (mUseSegmentedBatteryLed && !mMultiColorBatteryLed) {
                 // For non-RGB segmented LEDs, we must set the brightness as the
                 // color, since the alpha channel contains the battery level
-                int segmentLevel = mZenMode == Global.ZEN_MODE_OFF
-                        ? mBatteryBrightnessLevel : mBatteryBrightnessZenLevel;
+                int segmentLevel = zenMode == Global.ZEN_MODE_OFF
+                        ? config.batteryBrightnessLevel : config.batteryBrightnessZenLevel;
                 ledValues.setColor(segmentLevel | (segmentLevel << 8) | (segmentLevel << 16));
             }
         }
@@ -207,106 +254,210 @@ public final class LineageBatteryLights {
         }
     }
 
+    public void dump(PrintWriter pw) {
+        pw.println("LineageBatteryLights:");
+        pw.println("  config={ " + mConfig + " }");
+        pw.println("  mZenMode=" + mZenMode);
+        pw.println("  calcLights:");
+        mMemo.dump(pw, "    ");
+    }
+
+    // A snapshot of the battery light settings, never modified once published
+    private static final class Config {
+        final int version;
+        boolean lightEnabled;
+        boolean lightFullChargeDisabled;
+        boolean ledPulseEnabled;
+        int batteryLowARGB;
+        int batteryMediumARGB;
+        int batteryFullARGB;
+        int batteryBrightnessLevel;
+        int batteryBrightnessZenLevel;
+
+        Config(int version) {
+            this.version = version;
+        }
+
+        Config(Config other, int version) {
+            this.version = version;
+            lightEnabled = other.lightEnabled;
+            lightFullChargeDisabled = other.lightFullChargeDisabled;
+            ledPulseEnabled = other.ledPulseEnabled;
+            batteryLowARGB = other.batteryLowARGB;
+            batteryMediumARGB = other.batteryMediumARGB;
+            batteryFullARGB = other.batteryFullARGB;
+            batteryBrightnessLevel = other.batteryBrightnessLevel;
+            batteryBrightnessZenLevel = other.batteryBrightnessZenLevel;
+        }
+
+        boolean sameSettings(Config other) {
+            return lightEnabled == other.lightEnabled
+                    && lightFullChargeDisabled == other.lightFullChargeDisabled
+                    && ledPulseEnabled == other.ledPulseEnabled
+                    && batteryLowARGB == other.batteryLowARGB
+                    && batteryMediumARGB == other.batteryMediumARGB
+                    && batteryFullARGB == other.batteryFullARGB
+                    && batteryBrightnessLevel == other.batteryBrightnessLevel
+                    && batteryBrightnessZenLevel == other.batteryBrightnessZenLevel;
+        }
+
+        @Override
+        public String toString() {
+            return "version=" + version
+                    + " lightEnabled=" + lightEnabled
+                    + " lightFullChargeDisabled=" + lightFullChargeDisabled
+                    + " ledPulseEnabled=" + ledPulseEnabled
+                    + " batteryLowARGB=#" + Integer.toHexString(batteryLowARGB)
+                    + " batteryMediumARGB=#" + Integer.toHexString(batteryMediumARGB)
+                    + " batteryFullARGB=#" + Integer.toHexString(batteryFullARGB)
+                    + " batteryBrightnessLevel=" + batteryBrightnessLevel
+                    + " batteryBrightnessZenLevel=" + batteryBrightnessZenLevel;
+        }
+    }
+
     class SettingsObserver extends ContentObserver {
+        // The settings that are reloaded together
+        private static final int SETTING_ALL = 0;
+        private static final int SETTING_ENABLED = 1;
+        private static final int SETTING_FULL_CHARGE_DISABLED = 2;
+        private static final int SETTING_PULSE = 3;
+        private static final int SETTING_LOW_COLOR = 4;
+        private static final int SETTING_MEDIUM_COLOR = 5;
+        private static final int SETTING_FULL_COLOR = 6;
+        private static final int SETTING_BRIGHTNESS_LEVEL = 7;
+        private static final int SETTING_BRIGHTNESS_LEVEL_ZEN = 8;
+
+        private final ArrayMap<Uri, Integer> mSettings = new ArrayMap<Uri, Integer>();
+
         SettingsObserver(Handler handler) {
             super(handler);
         }
 
         void observe() {
-            ContentResolver resolver = mContext.getContentResolver();
-
             // Battery light enabled
-            resolver.registerContentObserver(LineageSettings.System.getUriFor(
-                    LineageSettings.System.BATTERY_LIGHT_ENABLED), false, this,
-                    UserHandle.USER_ALL);
+            observe(LineageSettings.System.getUriFor(
+                    LineageSettings.System.BATTERY_LIGHT_ENABLED), SETTING_ENABLED);
 
             // Battery light disabled if fully charged
-            resolver.registerContentObserver(LineageSettings.System.getUriFor(
-                    LineageSettings.System.BATTERY_LIGHT_FULL_CHARGE_DISABLED), false, this,
-                    UserHandle.USER_ALL);
+            observe(LineageSettings.System.getUriFor(
+                    LineageSettings.System.BATTERY_LIGHT_FULL_CHARGE_DISABLED),
+                    SETTING_FULL_CHARGE_DISABLED);
 
             // Low battery pulse
-            resolver.registerContentObserver(LineageSettings.System.getUriFor(
-                    LineageSettings.System.BATTERY_LIGHT_PULSE), false, this,
-                    UserHandle.USER_ALL);
+            observe(LineageSettings.System.getUriFor(
+                    LineageSettings.System.BATTERY_LIGHT_PULSE), SETTING_PULSE);
 
             if (mMultiColorBatteryLed) {
                 // Light colors
-                resolver.registerContentObserver(LineageSettings.System.getUriFor(
-                        LineageSettings.System.BATTERY_LIGHT_LOW_COLOR), false, this,
-                        UserHandle.USER_ALL);
-                resolver.registerContentObserver(LineageSettings.System.getUriFor(
-                        LineageSettings.System.BATTERY_LIGHT_MEDIUM_COLOR), false, this,
-                        UserHandle.USER_ALL);
-                resolver.registerContentObserver(LineageSettings.System.getUriFor(
-                        LineageSettings.System.BATTERY_LIGHT_FULL_COLOR), false, this,
-                        UserHandle.USER_ALL);
+                observe(LineageSettings.System.getUriFor(
+                        LineageSettings.System.BATTERY_LIGHT_LOW_COLOR), SETTING_LOW_COLOR);
+                observe(LineageSettings.System.getUriFor(
+                        LineageSettings.System.BATTERY_LIGHT_MEDIUM_COLOR),
+                        SETTING_MEDIUM_COLOR);
+                observe(LineageSettings.System.getUriFor(
+                        LineageSettings.System.BATTERY_LIGHT_FULL_COLOR), SETTING_FULL_COLOR);
             }
 
             if (mCanAdjustBrightness) {
                 // Battery brightness level
-                resolver.registerContentObserver(LineageSettings.System.getUriFor(
-                        LineageSettings.System.BATTERY_LIGHT_BRIGHTNESS_LEVEL), false, this,
-                        UserHandle.USER_ALL);
+                observe(LineageSettings.System.getUriFor(
+                        LineageSettings.System.BATTERY_LIGHT_BRIGHTNESS_LEVEL),
+                        SETTING_BRIGHTNESS_LEVEL);
                 // Battery brightness level in Do Not Disturb mode
-                resolver.registerContentObserver(LineageSettings.System.getUriFor(
-                        LineageSettings.System.BATTERY_LIGHT_BRIGHTNESS_LEVEL_ZEN), false, this,
-                        UserHandle.USER_ALL);
+                observe(LineageSettings.System.getUriFor(
+                        LineageSettings.System.BATTERY_LIGHT_BRIGHTNESS_LEVEL_ZEN),
+                        SETTING_BRIGHTNESS_LEVEL_ZEN);
             }
 
-            update();
+            update(SETTING_ALL);
+        }
+
+        private void observe(Uri uri, int setting) {
+            mSettings.put(uri, setting);
+            mContext.getContentResolver().registerContentObserver(uri, false, this,
+                    UserHandle.USER_ALL);
         }
 
         @Override
         public void onChange(boolean selfChange) {
-            update();
+            update(SETTING_ALL);
         }
 
-        private void update() {
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            final Integer setting = uri != null ? mSettings.get(uri) : null;
+            update(setting != null ? setting : SETTING_ALL);
+        }
+
+        // Reloads the given setting only, the others are kept from the current config
+        private void update(int setting) {
             ContentResolver resolver = mContext.getContentResolver();
             Resources res = mContext.getResources();
+            final Config oldConfig = mConfig;
+            final Config config = new Config(oldConfig, oldConfig.version + 1);
 
             // Battery light enabled
-            mLightEnabled = LineageSettings.System.getIntForUser(resolver,
-                    LineageSettings.System.BATTERY_LIGHT_ENABLED,
-                    1, UserHandle.USER_CURRENT) != 0;
+            if (setting == SETTING_ALL || setting == SETTING_ENABLED) {
+                config.lightEnabled = LineageSettings.System.getIntForUser(resolver,
+                        LineageSettings.System.BATTERY_LIGHT_ENABLED,
+                        1, UserHandle.USER_CURRENT) != 0;
+            }
 
             // Battery light disabled if fully charged
-            mLightFullChargeDisabled = LineageSettings.System.getIntForUser(resolver,
-                    LineageSettings.System.BATTERY_LIGHT_FULL_CHARGE_DISABLED,
-                    1, UserHandle.USER_CURRENT) != 0;
+            if (setting == SETTING_ALL || setting == SETTING_FULL_CHARGE_DISABLED) {
+                config.lightFullChargeDisabled = LineageSettings.System.getIntForUser(resolver,
+                        LineageSettings.System.BATTERY_LIGHT_FULL_CHARGE_DISABLED,
+                        1, UserHandle.USER_CURRENT) != 0;
+            }
 
             // Low battery pulse
-            mLedPulseEnabled = LineageSettings.System.getIntForUser(resolver,
-                    LineageSettings.System.BATTERY_LIGHT_PULSE,
-                    1, UserHandle.USER_CURRENT) != 0;
+            if (setting == SETTING_ALL || setting == SETTING_PULSE) {
+                config.ledPulseEnabled = LineageSettings.System.getIntForUser(resolver,
+                        LineageSettings.System.BATTERY_LIGHT_PULSE,
+                        1, UserHandle.USER_CURRENT) != 0;
+            }
 
             // Light colors
-            mBatteryLowARGB = LineageSettings.System.getIntForUser(resolver,
-                    LineageSettings.System.BATTERY_LIGHT_LOW_COLOR, res.getInteger(
-                    com.android.internal.R.integer.config_notificationsBatteryLowARGB),
-                    UserHandle.USER_CURRENT);
-            mBatteryMediumARGB = LineageSettings.System.getIntForUser(resolver,
-                    LineageSettings.System.BATTERY_LIGHT_MEDIUM_COLOR, res.getInteger(
-                    com.android.internal.R.integer.config_notificationsBatteryMediumARGB),
-                    UserHandle.USER_CURRENT);
-            mBatteryFullARGB = LineageSettings.System.getIntForUser(resolver,
-                    LineageSettings.System.BATTERY_LIGHT_FULL_COLOR, res.getInteger(
-                    com.android.internal.R.integer.config_notificationsBatteryFullARGB),
-                    UserHandle.USER_CURRENT);
+            if (setting == SETTING_ALL || setting == SETTING_LOW_COLOR) {
+                config.batteryLowARGB = LineageSettings.System.getIntForUser(resolver,
+                        LineageSettings.System.BATTERY_LIGHT_LOW_COLOR, res.getInteger(
+                        com.android.internal.R.integer.config_notificationsBatteryLowARGB),
+                        UserHandle.USER_CURRENT);
+            }
+            if (setting == SETTING_ALL || setting == SETTING_MEDIUM_COLOR) {
+                config.batteryMediumARGB = LineageSettings.System.getIntForUser(resolver,
+                        LineageSettings.System.BATTERY_LIGHT_MEDIUM_COLOR, res.getInteger(
+                        com.android.internal.R.integer.config_notificationsBatteryMediumARGB),
+                        UserHandle.USER_CURRENT);
+            }
+            if (setting == SETTING_ALL || setting == SETTING_FULL_COLOR) {
+                config.batteryFullARGB = LineageSettings.System.getIntForUser(resolver,
+                        LineageSettings.System.BATTERY_LIGHT_FULL_COLOR, res.getInteger(
+                        com.android.internal.R.integer.config_notificationsBatteryFullARGB),
+                        UserHandle.USER_CURRENT);
+            }
 
             // Adustable battery LED brightness.
             if (mCanAdjustBrightness) {
                 // Battery brightness level
-                mBatteryBrightnessLevel = LineageSettings.System.getIntForUser(resolver,
-                        LineageSettings.System.BATTERY_LIGHT_BRIGHTNESS_LEVEL,
-                        LedValues.LIGHT_BRIGHTNESS_MAXIMUM, UserHandle.USER_CURRENT);
+                if (setting == SETTING_ALL || setting == SETTING_BRIGHTNESS_LEVEL) {
+                    config.batteryBrightnessLevel = LineageSettings.System.getIntForUser(
+                            resolver, LineageSettings.System.BATTERY_LIGHT_BRIGHTNESS_LEVEL,
+                            LedValues.LIGHT_BRIGHTNESS_MAXIMUM, UserHandle.USER_CURRENT);
+                }
                 // Battery brightness level in Do Not Disturb mode
-                mBatteryBrightnessZenLevel = LineageSettings.System.getIntForUser(resolver,
-                        LineageSettings.System.BATTERY_LIGHT_BRIGHTNESS_LEVEL_ZEN,
-                        LedValues.LIGHT_BRIGHTNESS_MAXIMUM, UserHandle.USER_CURRENT);
+                if (setting == SETTING_ALL || setting == SETTING_BRIGHTNESS_LEVEL_ZEN) {
+                    config.batteryBrightnessZenLevel = LineageSettings.System.getIntForUser(
+                            resolver, LineageSettings.System.BATTERY_LIGHT_BRIGHTNESS_LEVEL_ZEN,
+                            LedValues.LIGHT_BRIGHTNESS_MAXIMUM, UserHandle.USER_CURRENT);
+                }
             }
 
+            // Observers also fire for writes of unchanged values
+            if (config.sameSettings(oldConfig)) {
+                return;
+            }
+            mConfig = config;
             mLedUpdater.update();
         }
     }
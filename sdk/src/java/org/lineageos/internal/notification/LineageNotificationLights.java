@@ -24,22 +24,19 @@ import android.app.KeyguardManager;
 import android.app.Notification;
 import android.content.Context;
 import android.content.ContentResolver;
-import android.content.pm.PackageManager;
-import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.res.Resources;
 import android.database.ContentObserver;
-import android.graphics.drawable.Drawable;
+import android.net.Uri;
 import android.os.Handler;
 import android.os.UserHandle;
 import android.provider.Settings;
 import android.provider.Settings.Global;
-import android.text.TextUtils;
 import android.util.ArrayMap;
 import android.util.Slog;
 
 import lineageos.providers.LineageSettings;
-import lineageos.util.ColorUtils;
 
+import java.io.PrintWriter;
 import java.util.Map;
 
 public final class LineageNotificationLights {
@@ -55,24 +52,31 @@ public final class LineageNotificationLights {
     // (via HAL or via modifying RGB values).
     private boolean mCanAdjustBrightness;
 
-    // Light config
-    private boolean mAutoGenerateNotificationColor;
-    private boolean mScreenOnEnabled;
-    private boolean mZenAllowLights;
-    private boolean mNotificationLedEnabled;
-    private int mNotificationLedBrightnessLevel;
-    private int mNotificationLedBrightnessLevelZen;
-    private int mDefaultNotificationColor;
-    private int mDefaultNotificationLedOn;
-    private int mDefaultNotificationLedOff;
-
-    private ArrayMap<String, LedValues> mNotificationPulseCustomLedValues;
-    private Map<String, String> mPackageNameMappings;
-    private final ArrayMap<String, Integer> mGeneratedPackageLedColors =
-            new ArrayMap<String, Integer>();
-
-    private int mZenMode;
+    // Light config, replaced as a whole on changes
+    private volatile Config mConfig;
 
+    private Map<String, String> mPackageNameMappings;
+    private final GeneratedLedColors mGeneratedPackageLedColors;
+    // Changes whenever a generated color replaces a provisional one
+    private volatile int mGeneratedColorsVersion;
+
+    private volatile int mZenMode;
+
+    // Remembers the last result of calcLights()
+    private static final int MEMO_KEY_CONFIG_VERSION = 0;
+    private static final int MEMO_KEY_GENERATED_COLORS_VERSION = 1;
+    private static final int MEMO_KEY_ZEN_MODE = 2;
+    private static final int MEMO_KEY_SCREEN_ACTIVE = 3;
+    private static final int MEMO_KEY_SUPPRESSED_EFFECTS = 4;
+    private static final int MEMO_KEY_FORCED_ON = 5;
+    private static final int MEMO_KEY_FORCED_BRIGHTNESS = 6;
+    private static final int MEMO_KEY_FORCED_COLOR = 7;
+    private static final int MEMO_KEY_FORCED_LIGHT_ON_MS = 8;
+    private static final int MEMO_KEY_FORCED_LIGHT_OFF_MS = 9;
+    private static final int MEMO_KEY_COUNT = 10;
+    private final LedValuesMemo mMemo = new LedValuesMemo(MEMO_KEY_COUNT);
+
+    private final Handler mHandler;
     private final SettingsObserver mSettingsObserver;
 
     private final Context mContext;
@@ -91,12 +95,14 @@ public final class LineageNotificationLights {
         mHALAdjustableBrightness = LightsCapabilities.supports(
                 mContext, LightsCapabilities.LIGHTS_ADJUSTABLE_NOTIFICATION_LED_BRIGHTNESS);
 
-        mDefaultNotificationColor = res.getColor(
+        final Config config = new Config(0);
+        config.defaultNotificationColor = res.getColor(
                 com.android.internal.R.color.config_defaultNotificationColor);
-        mDefaultNotificationLedOn = res.getInteger(
+        config.defaultNotificationLedOn = res.getInteger(
                 com.android.internal.R.integer.config_defaultNotificationLedOn);
-        mDefaultNotificationLedOff = res.getInteger(
+        config.defaultNotificationLedOff = res.getInteger(
                 com.android.internal.R.integer.config_defaultNotificationLedOff);
+        mConfig = config;
 
         mMultiColorNotificationLed = LightsCapabilities.supports(
                 mContext, LightsCapabilities.LIGHTS_RGB_NOTIFICATION_LED);
@@ -105,8 +111,6 @@ public final class LineageNotificationLights {
         // or the light is RGB adjustable.
         mCanAdjustBrightness = mHALAdjustableBrightness || mMultiColorNotificationLed;
 
-        mNotificationPulseCustomLedValues = new ArrayMap<String, LedValues>();
-
         mPackageNameMappings = new ArrayMap<String, String>();
         final String[] defaultMapping = res.getStringArray(
                 org.lineageos.platform.internal.R.array.notification_light_package_mapping);
@@ -115,13 +119,29 @@ public final class LineageNotificationLights {
             mPackageNameMappings.put(map[0], map[1]);
         }
 
-        mSettingsObserver = new SettingsObserver(new Handler());
+        mHandler = new Handler();
+        mGeneratedPackageLedColors = new GeneratedLedColors(mContext,
+                new GeneratedLedColors.Listener() {
+            @Override
+            public void onColorGenerated(String packageName) {
+                // Replace the provisional color of any lit notification
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mGeneratedColorsVersion++;
+                        mLedUpdater.update();
+                    }
+                });
+            }
+        });
+
+        mSettingsObserver = new SettingsObserver(mHandler);
         mSettingsObserver.observe();
     }
 
     // Whether we should show lights if the screen is on.
     public boolean showLightsScreenOn() {
-        return mScreenOnEnabled;
+        return mConfig.screenOnEnabled;
     }
 
     // Used by NotificationManagerService to help determine
@@ -132,69 +152,20 @@ public final class LineageNotificationLights {
         return keyguardManager != null && keyguardManager.isKeyguardLocked();
     }
 
-    private void parseNotificationPulseCustomValuesString(String customLedValuesString) {
-        if (TextUtils.isEmpty(customLedValuesString)) {
-            return;
-        }
-
-        for (String packageValuesString : customLedValuesString.split("\\|")) {
-            String[] packageValues = packageValuesString.split("=");
-            if (packageValues.length != 2) {
-                Slog.e(TAG, "Error parsing custom led values for unknown package");
-                continue;
-            }
-            String packageName = packageValues[0];
-            String[] values = packageValues[1].split(";");
-            if (values.length != 3) {
-                Slog.e(TAG, "Error parsing custom led values '"
-                        + packageValues[1] + "' for " + packageName);
-                continue;
-            }
-            LedValues ledValues;
-            try {
-                // color, onMs, offMs
-                ledValues = new LedValues(Integer.parseInt(values[0]),
-                        Integer.parseInt(values[1]), Integer.parseInt(values[2]));
-            } catch (NumberFormatException e) {
-                Slog.e(TAG, "Error parsing custom led values '"
-                        + packageValues[1] + "' for " + packageName);
-                continue;
-            }
-            mNotificationPulseCustomLedValues.put(packageName, ledValues);
-        }
+    private LedValues getLedValuesForPackageName(Config config, String packageName) {
+        return config.customLedValues.get(mapPackage(packageName));
     }
 
-    private LedValues getLedValuesForPackageName(String packageName) {
-        return mNotificationPulseCustomLedValues.get(mapPackage(packageName));
-    }
-
-    private int generateLedColorForPackageName(String packageName) {
-        if (!mAutoGenerateNotificationColor) {
-            return mDefaultNotificationColor;
+    private int generateLedColorForPackageName(Config config, String packageName) {
+        if (!config.autoGenerateNotificationColor) {
+            return config.defaultNotificationColor;
         }
         if (!mMultiColorNotificationLed) {
-            return mDefaultNotificationColor;
-        }
-        final String mapping = mapPackage(packageName);
-        int color = mDefaultNotificationColor;
-
-        if (mGeneratedPackageLedColors.containsKey(mapping)) {
-            return mGeneratedPackageLedColors.get(mapping);
+            return config.defaultNotificationColor;
         }
-
-        PackageManager pm = mContext.getPackageManager();
-        Drawable icon;
-        try {
-            icon = pm.getApplicationIcon(mapping);
-        } catch (NameNotFoundException e) {
-            Slog.e(TAG, e.getMessage(), e);
-            return color;
-        }
-
-        color = ColorUtils.generateAlertColorFromDrawable(icon);
-        mGeneratedPackageLedColors.put(mapping, color);
-
-        return color;
+        // Use the default color until the generated one is ready
+        return mGeneratedPackageLedColors.getColor(mapPackage(packageName),
+                config.defaultNotificationColor);
     }
 
     private String mapPackage(String pkg) {
@@ -240,15 +211,26 @@ public final class LineageNotificationLights {
     }
 
     public void setZenMode(int zenMode) {
+        if (zenMode == mZenMode) {
+            return;
+        }
         mZenMode = zenMode;
         mLedUpdater.update();
     }
 
+    // Returns the version of the light config, which changes whenever any
+    // of the notification light settings does.
+    public int getConfigVersion() {
+        return mConfig.version;
+    }
+
     // Called by NotificationManagerService updateLightsLocked().
     // Takes the lights values as requested by a notification and
     // updates them according to the active Lineage feature settings.
     public void calcLights(LedValues ledValues, String packageName, Notification n,
             boolean screenActive, int suppressedEffects) {
+        final Config config = mConfig;
+        final int zenMode = mZenMode;
         final boolean forcedOn = isForcedOn(n);
         final int forcedBrightness = getForcedBrightness(n);
         final int forcedColor = getForcedColor(n);
@@ -259,6 +241,21 @@ public final class LineageNotificationLights {
         final boolean suppressScreenOn =
                 (suppressedEffects & SUPPRESSED_EFFECT_SCREEN_ON) != 0;
 
+        mMemo.setKey(MEMO_KEY_CONFIG_VERSION, config.version);
+        mMemo.setKey(MEMO_KEY_GENERATED_COLORS_VERSION, mGeneratedColorsVersion);
+        mMemo.setKey(MEMO_KEY_ZEN_MODE, zenMode);
+        mMemo.setKey(MEMO_KEY_SCREEN_ACTIVE, screenActive ? 1 : 0);
+        mMemo.setKey(MEMO_KEY_SUPPRESSED_EFFECTS, suppressedEffects
+                & (SUPPRESSED_EFFECT_SCREEN_OFF | SUPPRESSED_EFFECT_SCREEN_ON));
+        mMemo.setKey(MEMO_KEY_FORCED_ON, forcedOn ? 1 : 0);
+        mMemo.setKey(MEMO_KEY_FORCED_BRIGHTNESS, forcedBrightness);
+        mMemo.setKey(MEMO_KEY_FORCED_COLOR, forcedColor);
+        mMemo.setKey(MEMO_KEY_FORCED_LIGHT_ON_MS, forcedLightOnMs);
+        mMemo.setKey(MEMO_KEY_FORCED_LIGHT_OFF_MS, forcedLightOffMs);
+        if (mMemo.lookup(ledValues, packageName)) {
+            return;
+        }
+
         if (DEBUG) {
             Slog.i(TAG, "calcLights input: "
                     + " ledValues={ " + ledValues + " }"
@@ -275,30 +272,26 @@ public final class LineageNotificationLights {
                     + " suppressScreenOn=" + suppressScreenOn
                     + " mCanAdjustBrightness=" + mCanAdjustBrightness
                     + " mHALAdjustableBrightness=" + mHALAdjustableBrightness
-                    + " mAutoGenerateNotificationColor=" + mAutoGenerateNotificationColor
                     + " mMultiColorNotificationLed=" + mMultiColorNotificationLed
-                    + " mNotificationLedBrightnessLevel=" + mNotificationLedBrightnessLevel
-                    + " mNotificationLedBrightnessLevelZen=" + mNotificationLedBrightnessLevelZen
-                    + " mScreenOnEnabled= " + mScreenOnEnabled
-                    + " mZenAllowLights=" + mZenAllowLights
-                    + " mZenMode=" + mZenMode
+                    + " config={ " + config + " }"
+                    + " zenMode=" + zenMode
             );
         }
 
         final boolean enableLed;
         if (forcedOn) {
             // Forced on always enables.
-            // This is even higher priority than mNotificationLedEnabled (user
+            // This is even higher priority than notificationLedEnabled (user
             // led on/off setting) so that the battery light picker can still
             // be used if notification led is turned off in settings.
             enableLed = true;
-        } else if (!mNotificationLedEnabled) {
+        } else if (!config.notificationLedEnabled) {
             // Notification light on/off user setting
             enableLed = false;
-        } else if (!mZenAllowLights && mZenMode != Global.ZEN_MODE_OFF) {
+        } else if (!config.zenAllowLights && zenMode != Global.ZEN_MODE_OFF) {
             // DnD configured to disable lights in all modes (except when off).
             enableLed = false;
-        } else if (screenActive && (!mScreenOnEnabled || suppressScreenOn)) {
+        } else if (screenActive && (!config.screenOnEnabled || suppressScreenOn)) {
             // Screen on cases where we disable
             enableLed = false;
         } else if (!screenActive && suppressScreenOff) {
@@ -310,6 +303,7 @@ public final class LineageNotificationLights {
         }
         if (!enableLed) {
             ledValues.setEnabled(false);
+            mMemo.store(ledValues);
             return;
         }
 
@@ -319,27 +313,27 @@ public final class LineageNotificationLights {
             brightness = LedValues.LIGHT_BRIGHTNESS_MAXIMUM;
         } else if (forcedBrightness > 0) {
             brightness = forcedBrightness;
-        } else if (mZenMode == Global.ZEN_MODE_OFF) {
-            brightness = mNotificationLedBrightnessLevel;
+        } else if (zenMode == Global.ZEN_MODE_OFF) {
+            brightness = config.notificationLedBrightnessLevel;
         } else {
-            brightness = mNotificationLedBrightnessLevelZen;
+            brightness = config.notificationLedBrightnessLevelZen;
         }
         ledValues.setBrightness(brightness);
 
-        final LedValues ledValuesPkg = getLedValuesForPackageName(packageName);
+        final LedValues ledValuesPkg = getLedValuesForPackageName(config, packageName);
 
         // Use package specific values that the user has chosen.
         if (ledValuesPkg != null) {
             ledValues.setColor(ledValuesPkg.getColor() != 0 ?
-                    ledValuesPkg.getColor() : generateLedColorForPackageName(packageName));
+                    ledValuesPkg.getColor() : generateLedColorForPackageName(config, packageName));
             ledValues.setOnMs(ledValuesPkg.getOnMs() >= 0 ?
-                    ledValuesPkg.getOnMs() : mDefaultNotificationLedOn);
+                    ledValuesPkg.getOnMs() : config.defaultNotificationLedOn);
             ledValues.setOffMs(ledValuesPkg.getOffMs() >= 0 ?
-                    ledValuesPkg.getOffMs() : mDefaultNotificationLedOff);
+                    ledValuesPkg.getOffMs() : config.defaultNotificationLedOff);
         } else if (ledValues.getColor() == 0) {
-            ledValues.setColor(generateLedColorForPackageName(packageName));
-            ledValues.setOnMs(mDefaultNotificationLedOn);
-            ledValues.setOffMs(mDefaultNotificationLedOff);
+            ledValues.setColor(generateLedColorForPackageName(config, packageName));
+            ledValues.setOnMs(config.defaultNotificationLedOn);
+            ledValues.setOffMs(config.defaultNotificationLedOff);
         }
 
         // Use forced color and durations, if specified
@@ -362,125 +356,256 @@ public final class LineageNotificationLights {
         if (DEBUG) {
             Slog.i(TAG, "calcLights output: ledValues={ " + ledValues + " }");
         }
+        mMemo.store(ledValues);
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("LineageNotificationLights:");
+        pw.println("  config={ " + mConfig + " }");
+        pw.println("  mMultiColorNotificationLed=" + mMultiColorNotificationLed);
+        pw.println("  mCanAdjustBrightness=" + mCanAdjustBrightness);
+        pw.println("  mZenMode=" + mZenMode);
+        pw.println("  calcLights:");
+        mMemo.dump(pw, "    ");
+        mGeneratedPackageLedColors.dump(pw);
+    }
+
+    // A snapshot of the notification light settings, never modified once published
+    private static final class Config {
+        final int version;
+        boolean notificationLedEnabled;
+        boolean autoGenerateNotificationColor;
+        boolean screenOnEnabled;
+        boolean zenAllowLights;
+        int notificationLedBrightnessLevel;
+        int notificationLedBrightnessLevelZen;
+        int defaultNotificationColor;
+        int defaultNotificationLedOn;
+        int defaultNotificationLedOff;
+        CustomLedValues customLedValues = CustomLedValues.EMPTY;
+
+        Config(int version) {
+            this.version = version;
+        }
+
+        Config(Config other, int version) {
+            this.version = version;
+            notificationLedEnabled = other.notificationLedEnabled;
+            autoGenerateNotificationColor = other.autoGenerateNotificationColor;
+            screenOnEnabled = other.screenOnEnabled;
+            zenAllowLights = other.zenAllowLights;
+            notificationLedBrightnessLevel = other.notificationLedBrightnessLevel;
+            notificationLedBrightnessLevelZen = other.notificationLedBrightnessLevelZen;
+            defaultNotificationColor = other.defaultNotificationColor;
+            defaultNotificationLedOn = other.defaultNotificationLedOn;
+            defaultNotificationLedOff = other.defaultNotificationLedOff;
+            customLedValues = other.customLedValues;
+        }
+
+        boolean sameSettings(Config other) {
+            return notificationLedEnabled == other.notificationLedEnabled
+                    && autoGenerateNotificationColor == other.autoGenerateNotificationColor
+                    && screenOnEnabled == other.screenOnEnabled
+                    && zenAllowLights == other.zenAllowLights
+                    && notificationLedBrightnessLevel == other.notificationLedBrightnessLevel
+                    && notificationLedBrightnessLevelZen
+                            == other.notificationLedBrightnessLevelZen
+                    && defaultNotificationColor == other.defaultNotificationColor
+                    && defaultNotificationLedOn == other.defaultNotificationLedOn
+                    && defaultNotificationLedOff == other.defaultNotificationLedOff
+                    && customLedValues.equals(other.customLedValues);
+        }
+
+        @Override
+        public String toString() {
+            return "version=" + version
+                    + " notificationLedEnabled=" + notificationLedEnabled
+                    + " autoGenerateNotificationColor=" + autoGenerateNotificationColor
+                    + " screenOnEnabled=" + screenOnEnabled
+                    + " zenAllowLights=" + zenAllowLights
+                    + " notificationLedBrightnessLevel=" + notificationLedBrightnessLevel
+                    + " notificationLedBrightnessLevelZen=" + notificationLedBrightnessLevelZen
+                    + " defaultNotificationColor=#"
+                            + Integer.toHexString(defaultNotificationColor)
+                    + " defaultNotificationLedOn=" + defaultNotificationLedOn
+                    + " defaultNotificationLedOff=" + defaultNotificationLedOff
+                    + " customLedValues=" + customLedValues;
+        }
     }
 
     class SettingsObserver extends ContentObserver {
+        // The settings that are reloaded together
+        private static final int SETTING_ALL = 0;
+        private static final int SETTING_LED_ENABLED = 1;
+        private static final int SETTING_COLOR_AUTO = 2;
+        private static final int SETTING_DEFAULT_COLOR = 3;
+        private static final int SETTING_DEFAULT_LED_ON = 4;
+        private static final int SETTING_DEFAULT_LED_OFF = 5;
+        private static final int SETTING_CUSTOM_VALUES = 6;
+        private static final int SETTING_SCREEN_ON = 7;
+        private static final int SETTING_BRIGHTNESS_LEVEL = 8;
+        private static final int SETTING_BRIGHTNESS_LEVEL_ZEN = 9;
+        private static final int SETTING_ZEN_ALLOW_LIGHTS = 10;
+
+        private final ArrayMap<Uri, Integer> mSettings = new ArrayMap<Uri, Integer>();
+
         SettingsObserver(Handler handler) {
             super(handler);
         }
 
         void observe() {
-            ContentResolver resolver = mContext.getContentResolver();
-
-            resolver.registerContentObserver(Settings.System.getUriFor(
+            observe(Settings.System.getUriFor(
                     Settings.System.NOTIFICATION_LIGHT_PULSE),
-                    false, this, UserHandle.USER_ALL);
-            resolver.registerContentObserver(LineageSettings.System.getUriFor(
+                    SETTING_LED_ENABLED);
+            observe(LineageSettings.System.getUriFor(
                     LineageSettings.System.NOTIFICATION_LIGHT_PULSE_DEFAULT_COLOR),
-                    false, this, UserHandle.USER_ALL);
-            resolver.registerContentObserver(LineageSettings.System.getUriFor(
+                    SETTING_DEFAULT_COLOR);
+            observe(LineageSettings.System.getUriFor(
                     LineageSettings.System.NOTIFICATION_LIGHT_PULSE_DEFAULT_LED_ON),
-                    false, this, UserHandle.USER_ALL);
-            resolver.registerContentObserver(LineageSettings.System.getUriFor(
+                    SETTING_DEFAULT_LED_ON);
+            observe(LineageSettings.System.getUriFor(
                     LineageSettings.System.NOTIFICATION_LIGHT_PULSE_DEFAULT_LED_OFF),
-                    false, this, UserHandle.USER_ALL);
-            resolver.registerContentObserver(LineageSettings.System.getUriFor(
+                    SETTING_DEFAULT_LED_OFF);
+            observe(LineageSettings.System.getUriFor(
                     LineageSettings.System.NOTIFICATION_LIGHT_PULSE_CUSTOM_ENABLE),
-                    false, this, UserHandle.USER_ALL);
-            resolver.registerContentObserver(LineageSettings.System.getUriFor(
+                    SETTING_CUSTOM_VALUES);
+            observe(LineageSettings.System.getUriFor(
                     LineageSettings.System.NOTIFICATION_LIGHT_PULSE_CUSTOM_VALUES),
-                    false, this, UserHandle.USER_ALL);
-            resolver.registerContentObserver(LineageSettings.System.getUriFor(
+                    SETTING_CUSTOM_VALUES);
+            observe(LineageSettings.System.getUriFor(
                     LineageSettings.System.NOTIFICATION_LIGHT_SCREEN_ON),
-                    false, this, UserHandle.USER_ALL);
-            resolver.registerContentObserver(LineageSettings.System.getUriFor(
-                    LineageSettings.System.NOTIFICATION_LIGHT_COLOR_AUTO), false,
-                    this, UserHandle.USER_ALL);
+                    SETTING_SCREEN_ON);
+            observe(LineageSettings.System.getUriFor(
+                    LineageSettings.System.NOTIFICATION_LIGHT_COLOR_AUTO),
+                    SETTING_COLOR_AUTO);
 
             if (mCanAdjustBrightness) {
-                resolver.registerContentObserver(LineageSettings.System.getUriFor(
+                observe(LineageSettings.System.getUriFor(
                         LineageSettings.System.NOTIFICATION_LIGHT_BRIGHTNESS_LEVEL),
-                        false, this, UserHandle.USER_ALL);
-                resolver.registerContentObserver(LineageSettings.System.getUriFor(
+                        SETTING_BRIGHTNESS_LEVEL);
+                observe(LineageSettings.System.getUriFor(
                         LineageSettings.System.NOTIFICATION_LIGHT_BRIGHTNESS_LEVEL_ZEN),
-                        false, this, UserHandle.USER_ALL);
+                        SETTING_BRIGHTNESS_LEVEL_ZEN);
             }
 
-            resolver.registerContentObserver(LineageSettings.System.getUriFor(
-                    LineageSettings.System.ZEN_ALLOW_LIGHTS), false, this,
-                    UserHandle.USER_ALL);
+            observe(LineageSettings.System.getUriFor(
+                    LineageSettings.System.ZEN_ALLOW_LIGHTS),
+                    SETTING_ZEN_ALLOW_LIGHTS);
 
-            update();
+            update(SETTING_ALL);
+        }
+
+        private void observe(Uri uri, int setting) {
+            mSettings.put(uri, setting);
+            mContext.getContentResolver().registerContentObserver(uri,
+                    false, this, UserHandle.USER_ALL);
         }
 
         @Override
         public void onChange(boolean selfChange) {
-            update();
+            update(SETTING_ALL);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            final Integer setting = uri != null ? mSettings.get(uri) : null;
+            update(setting != null ? setting : SETTING_ALL);
         }
 
-        private void update() {
+        // Reloads the given setting only, the others are kept from the current config
+        private void update(int setting) {
             ContentResolver resolver = mContext.getContentResolver();
-            Resources res = mContext.getResources();
+            final Config oldConfig = mConfig;
+            final Config config = new Config(oldConfig, oldConfig.version + 1);
 
             // Whether the notification led is enabled
-            mNotificationLedEnabled = Settings.System.getIntForUser(resolver,
-                    Settings.System.NOTIFICATION_LIGHT_PULSE,
-                    0, UserHandle.USER_CURRENT) != 0;
+            if (setting == SETTING_ALL || setting == SETTING_LED_ENABLED) {
+                config.notificationLedEnabled = Settings.System.getIntForUser(resolver,
+                        Settings.System.NOTIFICATION_LIGHT_PULSE,
+                        0, UserHandle.USER_CURRENT) != 0;
+            }
 
             // Automatically pick a color for LED if not set
-            mAutoGenerateNotificationColor = LineageSettings.System.getIntForUser(resolver,
-                    LineageSettings.System.NOTIFICATION_LIGHT_COLOR_AUTO,
-                    1, UserHandle.USER_CURRENT) != 0;
+            if (setting == SETTING_ALL || setting == SETTING_COLOR_AUTO) {
+                config.autoGenerateNotificationColor = LineageSettings.System.getIntForUser(
+                        resolver, LineageSettings.System.NOTIFICATION_LIGHT_COLOR_AUTO,
+                        1, UserHandle.USER_CURRENT) != 0;
+
+                mGeneratedPackageLedColors.setPrecomputeEnabled(
+                        config.autoGenerateNotificationColor && mMultiColorNotificationLed);
+            }
 
             // LED default color
-            mDefaultNotificationColor = LineageSettings.System.getIntForUser(resolver,
-                    LineageSettings.System.NOTIFICATION_LIGHT_PULSE_DEFAULT_COLOR,
-                    mDefaultNotificationColor, UserHandle.USER_CURRENT);
+            if (setting == SETTING_ALL || setting == SETTING_DEFAULT_COLOR) {
+                config.defaultNotificationColor = LineageSettings.System.getIntForUser(resolver,
+                        LineageSettings.System.NOTIFICATION_LIGHT_PULSE_DEFAULT_COLOR,
+                        oldConfig.defaultNotificationColor, UserHandle.USER_CURRENT);
+            }
 
             // LED default on MS
-            mDefaultNotificationLedOn = LineageSettings.System.getIntForUser(resolver,
-                    LineageSettings.System.NOTIFICATION_LIGHT_PULSE_DEFAULT_LED_ON,
-                    mDefaultNotificationLedOn, UserHandle.USER_CURRENT);
+            if (setting == SETTING_ALL || setting == SETTING_DEFAULT_LED_ON) {
+                config.defaultNotificationLedOn = LineageSettings.System.getIntForUser(resolver,
+                        LineageSettings.System.NOTIFICATION_LIGHT_PULSE_DEFAULT_LED_ON,
+                        oldConfig.defaultNotificationLedOn, UserHandle.USER_CURRENT);
+            }
 
             // LED default off MS
-            mDefaultNotificationLedOff = LineageSettings.System.getIntForUser(resolver,
-                    LineageSettings.System.NOTIFICATION_LIGHT_PULSE_DEFAULT_LED_OFF,
-                    mDefaultNotificationLedOff, UserHandle.USER_CURRENT);
-
-            // LED generated notification colors
-            mGeneratedPackageLedColors.clear();
-
-            // LED custom notification colors
-            mNotificationPulseCustomLedValues.clear();
-            if (LineageSettings.System.getIntForUser(resolver,
-                    LineageSettings.System.NOTIFICATION_LIGHT_PULSE_CUSTOM_ENABLE, 0,
-                    UserHandle.USER_CURRENT) != 0) {
-                parseNotificationPulseCustomValuesString(LineageSettings.System.getStringForUser(
-                        resolver, LineageSettings.System.NOTIFICATION_LIGHT_PULSE_CUSTOM_VALUES,
-                        UserHandle.USER_CURRENT));
+            if (setting == SETTING_ALL || setting == SETTING_DEFAULT_LED_OFF) {
+                config.defaultNotificationLedOff = LineageSettings.System.getIntForUser(resolver,
+                        LineageSettings.System.NOTIFICATION_LIGHT_PULSE_DEFAULT_LED_OFF,
+                        oldConfig.defaultNotificationLedOff, UserHandle.USER_CURRENT);
+            }
+
+            // LED custom notification colors, only parsed again when they change
+            if (setting == SETTING_ALL || setting == SETTING_CUSTOM_VALUES) {
+                if (LineageSettings.System.getIntForUser(resolver,
+                        LineageSettings.System.NOTIFICATION_LIGHT_PULSE_CUSTOM_ENABLE, 0,
+                        UserHandle.USER_CURRENT) != 0) {
+                    // Only the entries that changed are parsed
+                    config.customLedValues = oldConfig.customLedValues.update(
+                            LineageSettings.System.getStringForUser(resolver,
+                            LineageSettings.System.NOTIFICATION_LIGHT_PULSE_CUSTOM_VALUES,
+                            UserHandle.USER_CURRENT));
+                } else {
+                    config.customLedValues = CustomLedValues.EMPTY;
+                }
             }
 
             // Notification lights with screen on
-            mScreenOnEnabled = (LineageSettings.System.getIntForUser(resolver,
-                    LineageSettings.System.NOTIFICATION_LIGHT_SCREEN_ON, 0,
-                    UserHandle.USER_CURRENT) != 0);
+            if (setting == SETTING_ALL || setting == SETTING_SCREEN_ON) {
+                config.screenOnEnabled = (LineageSettings.System.getIntForUser(resolver,
+                        LineageSettings.System.NOTIFICATION_LIGHT_SCREEN_ON, 0,
+                        UserHandle.USER_CURRENT) != 0);
+            }
 
             // Adustable notification LED brightness.
             if (mCanAdjustBrightness) {
                 // Normal brightness.
-                mNotificationLedBrightnessLevel = LineageSettings.System.getIntForUser(resolver,
-                        LineageSettings.System.NOTIFICATION_LIGHT_BRIGHTNESS_LEVEL,
-                        LedValues.LIGHT_BRIGHTNESS_MAXIMUM, UserHandle.USER_CURRENT);
+                if (setting == SETTING_ALL || setting == SETTING_BRIGHTNESS_LEVEL) {
+                    config.notificationLedBrightnessLevel = LineageSettings.System.getIntForUser(
+                            resolver, LineageSettings.System.NOTIFICATION_LIGHT_BRIGHTNESS_LEVEL,
+                            LedValues.LIGHT_BRIGHTNESS_MAXIMUM, UserHandle.USER_CURRENT);
+                }
                 // Brightness in Do Not Disturb mode.
-                mNotificationLedBrightnessLevelZen = LineageSettings.System.getIntForUser(
-                        resolver, LineageSettings.System.NOTIFICATION_LIGHT_BRIGHTNESS_LEVEL_ZEN,
-                        LedValues.LIGHT_BRIGHTNESS_MAXIMUM, UserHandle.USER_CURRENT);
+                if (setting == SETTING_ALL || setting == SETTING_BRIGHTNESS_LEVEL_ZEN) {
+                    config.notificationLedBrightnessLevelZen =
+                            LineageSettings.System.getIntForUser(resolver,
+                            LineageSettings.System.NOTIFICATION_LIGHT_BRIGHTNESS_LEVEL_ZEN,
+                            LedValues.LIGHT_BRIGHTNESS_MAXIMUM, UserHandle.USER_CURRENT);
+                }
             }
 
-            mZenAllowLights = LineageSettings.System.getIntForUser(resolver,
+            if (setting == SETTING_ALL || setting == SETTING_ZEN_ALLOW_LIGHTS) {
+                config.zenAllowLights = LineageSettings.System.getIntForUser(resolver,
                         LineageSettings.System.ZEN_ALLOW_LIGHTS,
                         1, UserHandle.USER_CURRENT) != 0;
+            }
 
+            // Observers also fire for writes of unchanged values
+            if (config.sameSettings(oldConfig)) {
+                return;
+            }
+            mConfig = config;
             mLedUpdater.update();
         }
     }
@@ -18,6 +18,7 @@ package org.lineageos.internal.statusbar;
 
 import android.content.ContentResolver;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.database.ContentObserver;
 import android.graphics.Color;
@@ -45,9 +46,10 @@ import lineageos.providers.LineageSettings;
 
 import org.lineageos.platform.internal.R;
 
+import java.text.DecimalFormatSymbols;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.stream.Stream;
+import java.util.Locale;
 
 public class NetworkTraffic extends TextView {
     private static final String TAG = "NetworkTraffic";
@@ -83,6 +85,24 @@ public class NetworkTraffic extends TextView {
     private static final int SHOW_UNITS_ON = 1;
     private static final int SHOW_UNITS_COMPACT = 2;
 
+    private static final int[] UNIT_STRINGS = {
+        R.string.kilobitspersecond_short,
+        R.string.megabitspersecond_short,
+        R.string.kilobytespersecond_short,
+        R.string.kilobytespersecond_compact,
+        R.string.megabytespersecond_short,
+        R.string.megabytespersecond_compact,
+    };
+    private static final int UNIT_KILOBITS = 0;
+    private static final int UNIT_MEGABITS = 1;
+    private static final int UNIT_KILOBYTES = 2;
+    private static final int UNIT_KILOBYTES_COMPACT = 3;
+    private static final int UNIT_MEGABYTES = 4;
+    private static final int UNIT_MEGABYTES_COMPACT = 5;
+    private static final int UNIT_NONE = -1;
+
+    private static final long[] POWERS_OF_TEN = { 1, 10, 100 };
+
     // Thresholds themselves are always defined in kbps
     private static final long AUTOHIDE_THRESHOLD_KILOBITS  = 10;
     private static final long AUTOHIDE_THRESHOLD_MEGABITS  = 100;
@@ -111,10 +131,24 @@ public class NetworkTraffic extends TextView {
     private Drawable mDrawable;
 
     private final HashMap<Network, LinkProperties> mLinkPropertiesMap = new HashMap<>();
+    // Interfaces of mLinkPropertiesMap, plus their Clat IPv4 interfaces
+    private String[] mInterfaces = new String[0];
     // Used to indicate that the set of sources contributing
     // to current stats have changed.
     private boolean mNetworksChanged = true;
 
+    // The text is formatted into mPendingText, and the buffers are swapped once it
+    // differs from mDisplayedText, which is referenced by the view. Neither the
+    // formatting nor the periodic refresh allocate once the buffers are large enough.
+    private char[] mPendingText = new char[32];
+    private int mPendingLength;
+    private char[] mDisplayedText = new char[32];
+    private int mDisplayedLength;
+    private final String[] mUnitStrings = new String[UNIT_STRINGS.length];
+    private Locale mFormatLocale;
+    private char mZeroDigit;
+    private char mDecimalSeparator;
+
     public NetworkTraffic(Context context) {
         this(context, null);
     }
@@ -131,6 +165,7 @@ public class NetworkTraffic extends TextView {
         mTextSizeMulti = resources.getDimensionPixelSize(R.dimen.net_traffic_multi_text_size);
 
         mNetworkTrafficIsVisible = false;
+        loadUnitStrings();
 
         mTrafficHandler = new Handler(mContext.getMainLooper()) {
             @Override
@@ -149,15 +184,32 @@ public class NetworkTraffic extends TextView {
                         final LinkPropertiesHolder lph = (LinkPropertiesHolder) msg.obj;
                         mLinkPropertiesMap.put(lph.getNetwork(), lph.getLinkProperties());
                         mNetworksChanged = true;
+                        updateInterfaces();
                         break;
 
                     case MESSAGE_TYPE_REMOVE_NETWORK:
                         mLinkPropertiesMap.remove((Network) msg.obj);
                         mNetworksChanged = true;
+                        updateInterfaces();
                         break;
                 }
             }
 
+            // Rebuilt only when networks change, rather than on every refresh
+            private void updateInterfaces() {
+                // Add interface stats, including stats from Clat's IPv4 interface
+                // (for applicable IPv6 networks). Stats are 0 if it doesn't exist.
+                final ArrayList<String> ifaces = new ArrayList<>();
+                for (LinkProperties link : mLinkPropertiesMap.values()) {
+                    final String iface = link.getInterfaceName();
+                    if (iface != null) {
+                        ifaces.add(iface);
+                        ifaces.add(CLAT_PREFIX + iface);
+                    }
+                }
+                mInterfaces = ifaces.toArray(new String[ifaces.size()]);
+            }
+
             private void recalculateStats() {
                 final long now = SystemClock.elapsedRealtime();
                 final long timeDelta = now - mLastUpdateTime; /* ms */
@@ -167,13 +219,7 @@ public class NetworkTraffic extends TextView {
                 // Sum tx and rx bytes from all sources of interest
                 long txBytes = 0;
                 long rxBytes = 0;
-                // Add interface stats, including stats from Clat's IPv4 interface
-                // (for applicable IPv6 networks). Stats are 0 if it doesn't exist.
-                final String[] ifaces = mLinkPropertiesMap.values().stream()
-                        .map(link -> link.getInterfaceName()).filter(iface -> iface != null)
-                        .flatMap(iface -> Stream.of(iface, CLAT_PREFIX + iface))
-                        .toArray(String[]::new);
-                for (String iface : ifaces) {
+                for (String iface : mInterfaces) {
                     final long ifaceTxBytes = TrafficStats.getTxBytes(iface);
                     final long ifaceRxBytes = TrafficStats.getRxBytes(iface);
                     if (DEBUG) {
@@ -212,19 +258,24 @@ public class NetworkTraffic extends TextView {
                         && (!showDownstream || mRxKbps < mAutoHideThreshold);
 
                 if (!enabled || shouldHide) {
-                    setText("");
+                    if (mDisplayedLength != 0) {
+                        setText("");
+                        mDisplayedLength = 0;
+                    }
                     setVisibility(GONE);
                 } else {
+                    updateFormatSymbols();
+                    mPendingLength = 0;
+
                     // Get information for uplink ready so the line return can be added
-                    StringBuilder output = new StringBuilder();
                     if (showUpstream) {
-                        output.append(formatOutput(mTxKbps));
+                        formatOutput(mTxKbps);
                     }
 
                     // Ensure text size is where it needs to be
                     int textSize;
                     if (showUpstream && showDownstream) {
-                        output.append("\n");
+                        append('\n');
                         textSize = mTextSizeMulti;
                     } else {
                         textSize = mTextSizeSingle;
@@ -232,13 +283,17 @@ public class NetworkTraffic extends TextView {
 
                     // Add information for downlink if it's called for
                     if (showDownstream) {
-                        output.append(formatOutput(mRxKbps));
+                        formatOutput(mRxKbps);
                     }
 
                     // Update view if there's anything new to show
-                    if (!output.toString().contentEquals(getText())) {
+                    if (!isPendingTextDisplayed()) {
+                        final char[] displayed = mDisplayedText;
+                        mDisplayedText = mPendingText;
+                        mDisplayedLength = mPendingLength;
+                        mPendingText = displayed;
                         setTextSize(TypedValue.COMPLEX_UNIT_PX, (float) textSize);
-                        setText(output.toString());
+                        setText(mDisplayedText, 0, mDisplayedLength);
                     }
                     setVisibility(VISIBLE);
                 }
@@ -251,54 +306,131 @@ public class NetworkTraffic extends TextView {
                 }
             }
 
-            private String formatOutput(long kbps) {
-                final String value;
-                final String unit;
-                int unitid = 0;
+            private void formatOutput(long kbps) {
+                final int unit;
                 switch (mUnits) {
                     case UNITS_KILOBITS:
-                        value = String.format("%d", kbps);
-                        unitid = R.string.kilobitspersecond_short;
+                        appendDigits(kbps, 1);
+                        unit = UNIT_KILOBITS;
                         break;
                     case UNITS_MEGABITS:
-                        value = String.format("%.1f", (float) kbps / 1000);
-                        unitid = R.string.megabitspersecond_short;
+                        appendDecimal((float) kbps / 1000, 1);
+                        unit = UNIT_MEGABITS;
                         break;
                     case UNITS_KILOBYTES:
                     case UNITS_AUTOBYTES:
                         if (kbps < 8000 || mUnits == UNITS_KILOBYTES) {
-                            value = String.format("%.0f", (float) kbps / 8 );
-                            unitid = mShowUnits == SHOW_UNITS_COMPACT
-                                ? R.string.kilobytespersecond_compact
-                                : R.string.kilobytespersecond_short;
+                            appendDecimal((float) kbps / 8, 0);
+                            unit = mShowUnits == SHOW_UNITS_COMPACT
+                                ? UNIT_KILOBYTES_COMPACT
+                                : UNIT_KILOBYTES;
                             break;
                         }
                     case UNITS_MEGABYTES:
                         {
-                            final String format;
+                            final int decimals;
                             if (kbps < 80000) {
-                                format = "%.2f";
+                                decimals = 2;
                             } else if (kbps < 800000) {
-                                format = "%.1f";
+                                decimals = 1;
                             } else {
-                                format = "%.0f";
+                                decimals = 0;
                             }
-                            value = String.format(format, (float) kbps / 8000 );
+                            appendDecimal((float) kbps / 8000, decimals);
                         }
-                        unitid = mShowUnits == SHOW_UNITS_COMPACT
-                            ? R.string.megabytespersecond_compact
-                            : R.string.megabytespersecond_short;
+                        unit = mShowUnits == SHOW_UNITS_COMPACT
+                            ? UNIT_MEGABYTES_COMPACT
+                            : UNIT_MEGABYTES;
                         break;
                     default:
-                        value = "unknown";
+                        append("unknown");
+                        unit = UNIT_NONE;
                         break;
                 }
 
-                if (mShowUnits > SHOW_UNITS_OFF && unitid != 0) {
-                    unit = mContext.getString(unitid);
-                    return value + " " + unit;
-                } else {
-                    return value;
+                if (mShowUnits > SHOW_UNITS_OFF && unit != UNIT_NONE) {
+                    append(' ');
+                    append(mUnitStrings[unit]);
+                }
+            }
+
+            // Appends value with the given number of decimals, rounded half up
+            // like String.format("%.<decimals>f") does
+            private void appendDecimal(float value, int decimals) {
+                if (value < 0) {
+                    append('-');
+                    value = -value;
+                }
+                final long scale = POWERS_OF_TEN[decimals];
+                // Exact in double, so values like 0.35f, which are slightly below
+                // 0.35, round the same way as with String.format()
+                final long scaled = (long) Math.floor((double) value * scale + 0.5);
+                appendDigits(scaled / scale, 1);
+                if (decimals > 0) {
+                    append(mDecimalSeparator);
+                    appendDigits(scaled % scale, decimals);
+                }
+            }
+
+            private void appendDigits(long value, int minDigits) {
+                if (value < 0) {
+                    append('-');
+                    value = -value;
+                }
+                int digits = 1;
+                for (long rest = value / 10; rest > 0; rest /= 10) {
+                    digits++;
+                }
+                digits = Math.max(digits, minDigits);
+                ensurePendingCapacity(digits);
+                for (int i = mPendingLength + digits - 1; i >= mPendingLength; i--) {
+                    mPendingText[i] = (char) (mZeroDigit + value % 10);
+                    value /= 10;
+                }
+                mPendingLength += digits;
+            }
+
+            private void append(char c) {
+                ensurePendingCapacity(1);
+                mPendingText[mPendingLength++] = c;
+            }
+
+            private void append(String text) {
+                final int length = text.length();
+                ensurePendingCapacity(length);
+                text.getChars(0, length, mPendingText, mPendingLength);
+                mPendingLength += length;
+            }
+
+            private void ensurePendingCapacity(int extra) {
+                if (mPendingLength + extra > mPendingText.length) {
+                    final char[] text = new char[Math.max(mPendingText.length * 2,
+                            mPendingLength + extra)];
+                    System.arraycopy(mPendingText, 0, text, 0, mPendingLength);
+                    mPendingText = text;
+                }
+            }
+
+            private boolean isPendingTextDisplayed() {
+                if (mPendingLength != mDisplayedLength) {
+                    return false;
+                }
+                for (int i = 0; i < mPendingLength; i++) {
+                    if (mPendingText[i] != mDisplayedText[i]) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            // Use the same digits and separator as String.format() in the default locale
+            private void updateFormatSymbols() {
+                final Locale locale = Locale.getDefault();
+                if (locale != mFormatLocale) {
+                    final DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+                    mZeroDigit = symbols.getZeroDigit();
+                    mDecimalSeparator = symbols.getDecimalSeparator();
+                    mFormatLocale = locale;
                 }
             }
         };
@@ -390,6 +522,22 @@ public class NetworkTraffic extends TextView {
         mObserver.unobserve();
     }
 
+    @Override
+    protected void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        // Pick up a locale change
+        loadUnitStrings();
+        updateViewState();
+    }
+
+    private void loadUnitStrings() {
+        for (int i = 0; i < UNIT_STRINGS.length; i++) {
+            mUnitStrings[i] = mContext.getString(UNIT_STRINGS[i]);
+        }
+        // Also redraw the text in the new locale
+        mDisplayedLength = -1;
+    }
+
     class SettingsObserver extends ContentObserver {
         SettingsObserver(Handler handler) {
             super(handler);
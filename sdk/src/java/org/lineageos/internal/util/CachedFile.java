@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.internal.util;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Companion to {@link FileUtils} for files that are accessed over and over,
+ * like sysfs nodes polled by hardware features.
+ *
+ * The file is opened once and every read rereads it from the start with a
+ * positional read into a reused buffer, so repeated accesses cost a single
+ * syscall. The buffer grows to fit the longest line read so far. Writes also
+ * go to the start of the file without truncating it, which suits sysfs nodes
+ * where every write replaces the value. Use
+ * {@link FileUtils#writeLine(String, String)} for regular files.
+ *
+ * Handles are reopened after an error, so a node that disappears and comes
+ * back keeps working.
+ */
+public final class CachedFile implements Closeable {
+    private static final String TAG = "CachedFile";
+    private static final int BUFFER_SIZE = 512;
+
+    private final String mFileName;
+    private byte[] mBytes = new byte[BUFFER_SIZE];
+    private ByteBuffer mBuffer = ByteBuffer.wrap(mBytes);
+
+    private FileChannel mReadChannel;
+    private FileChannel mWriteChannel;
+
+    public CachedFile(String fileName) {
+        mFileName = fileName;
+    }
+
+    public String getFileName() {
+        return mFileName;
+    }
+
+    /**
+     * Reads the first line of text from the file, like
+     * {@link FileUtils#readOneLine(String)} but without reopening it.
+     *
+     * @return the read line contents, or null on failure
+     */
+    public synchronized String readOneLine() {
+        final int length = readLineLength();
+        return length >= 0 ? new String(mBytes, 0, length, StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * Reads the first line of the file as a decimal number, without allocating.
+     *
+     * @return the parsed value, or defaultValue on failure
+     */
+    public synchronized long readLong(long defaultValue) {
+        final int length = readLineLength();
+        if (length <= 0) {
+            return defaultValue;
+        }
+
+        int i = 0;
+        boolean negative = false;
+        if (mBytes[0] == '-' || mBytes[0] == '+') {
+            negative = mBytes[0] == '-';
+            i++;
+        }
+        if (i == length) {
+            return defaultValue;
+        }
+        final int digitsStart = i;
+        long value = 0;
+        for (; i < length; i++) {
+            final int digit = mBytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                // Allow trailing whitespace only
+                if (i > digitsStart && (mBytes[i] == ' ' || mBytes[i] == '\t')) {
+                    break;
+                }
+                return defaultValue;
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Writes the given value to the start of the file.
+     *
+     * @return true on success, false on failure
+     */
+    public synchronized boolean writeLine(String value) {
+        try {
+            if (mWriteChannel == null) {
+                mWriteChannel = FileChannel.open(Paths.get(mFileName), StandardOpenOption.WRITE);
+            }
+            final ByteBuffer buffer = ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+            long position = 0;
+            while (buffer.hasRemaining()) {
+                position += mWriteChannel.write(buffer, position);
+            }
+            return true;
+        } catch (NoSuchFileException | FileNotFoundException e) {
+            Log.w(TAG, "No such file " + mFileName + " for writing", e);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write to file " + mFileName, e);
+        }
+        mWriteChannel = closeQuietly(mWriteChannel);
+        return false;
+    }
+
+    /**
+     * Reads the first line of every given file.
+     *
+     * @param files the files to read
+     * @param lines receives the line of each file at the same index, or null on failure
+     * @return the number of files that could be read
+     */
+    public static int readLines(CachedFile[] files, String[] lines) {
+        int count = 0;
+        for (int i = 0; i < files.length; i++) {
+            lines[i] = files[i].readOneLine();
+            if (lines[i] != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized void close() {
+        mReadChannel = closeQuietly(mReadChannel);
+        mWriteChannel = closeQuietly(mWriteChannel);
+    }
+
+    /**
+     * Reads the start of the file up to the first line terminator, which is
+     * '\n' or '\r' as for {@link java.io.BufferedReader#readLine()}.
+     *
+     * @return length of the first line now in mBytes, or -1 on failure
+     */
+    private int readLineLength() {
+        try {
+            if (mReadChannel == null) {
+                mReadChannel = FileChannel.open(Paths.get(mFileName), StandardOpenOption.READ);
+            }
+            mBuffer.clear();
+            int start = 0;
+            int read;
+            while ((read = mReadChannel.read(mBuffer, start)) > 0) {
+                for (int i = start; i < start + read; i++) {
+                    if (mBytes[i] == '\n' || mBytes[i] == '\r') {
+                        return i;
+                    }
+                }
+                start += read;
+                if (!mBuffer.hasRemaining()) {
+                    // Keep the larger buffer, the line will likely be this long again
+                    mBytes = Arrays.copyOf(mBytes, mBytes.length * 2);
+                    mBuffer = ByteBuffer.wrap(mBytes);
+                    mBuffer.position(start);
+                }
+            }
+            // Like BufferedReader#readLine(), an empty file has no line at all
+            return start > 0 ? start : -1;
+        } catch (NoSuchFileException | FileNotFoundException e) {
+            Log.w(TAG, "No such file " + mFileName + " for reading", e);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read from file " + mFileName, e);
+        }
+        mReadChannel = closeQuietly(mReadChannel);
+        return -1;
+    }
+
+    private static FileChannel closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Ignored, not much we can do anyway
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.internal.notification;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class CustomLedValuesTest extends AndroidTestCase {
+    private static final String[] TOKENS = {
+        "|", "|", "=", "=", ";", ";", ";",
+        "com.a", "com.b", "c", "",
+        "0", "1", "255", "-1", "+7", "-16777216", "2147483647", "2147483648", "-2147483648",
+        "99999999999", "x", " 1", "\u0661\u0662",
+    };
+
+    /**
+     * How values were parsed before CustomLedValues, with String#split().
+     */
+    private static Map<String, LedValues> parseWithSplit(String customLedValuesString) {
+        final Map<String, LedValues> customLedValues = new HashMap<>();
+        if (customLedValuesString == null || customLedValuesString.isEmpty()) {
+            return customLedValues;
+        }
+
+        for (String packageValuesString : customLedValuesString.split("\\|")) {
+            String[] packageValues = packageValuesString.split("=");
+            if (packageValues.length != 2) {
+                continue;
+            }
+            String packageName = packageValues[0];
+            String[] values = packageValues[1].split(";");
+            if (values.length != 3) {
+                continue;
+            }
+            try {
+                customLedValues.put(packageName, new LedValues(Integer.parseInt(values[0]),
+                        Integer.parseInt(values[1]), Integer.parseInt(values[2])));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+        }
+        return customLedValues;
+    }
+
+    private static void assertSameValues(String values, Map<String, LedValues> expected,
+            CustomLedValues actual) {
+        assertEquals(values, expected.size(), actual.size());
+        for (Map.Entry<String, LedValues> entry : expected.entrySet()) {
+            assertEquals(values + " " + entry.getKey(), entry.getValue(),
+                    actual.get(entry.getKey()));
+        }
+    }
+
+    @SmallTest
+    public void testTrailingSeparatorsAreIgnored() {
+        final String[] accepted = {
+            "pkg=1;2;3",
+            "pkg=1;2;3;",
+            "pkg=1;2;3;;",
+            "pkg=1;2;3=",
+            "pkg=1;2;3==",
+            "pkg=1;2;3;=",
+            "pkg=1;2;3|",
+            "=1;2;3",
+            "pkg=+1;-2;\u0663",
+        };
+        for (String values : accepted) {
+            assertSameValues(values, parseWithSplit(values), CustomLedValues.parse(values));
+            assertEquals(values, 1, CustomLedValues.parse(values).size());
+        }
+
+        final String[] rejected = {
+            "pkg", "pkg=", "pkg==1;2;3", "pkg=1;2;=3", "pkg=1;2", "pkg=1;2;", "pkg=;1;2;3",
+            "pkg=1;;3", "pkg=1;2;3;4", "pkg=1;2;3=;", "pkg=1;2;x", "pkg=1;2;2147483648",
+        };
+        for (String values : rejected) {
+            assertEquals(values, 0, CustomLedValues.parse(values).size());
+        }
+    }
+
+    @SmallTest
+    public void testLastEntryWins() {
+        final String values = "a=1;2;3|b=4;5;6|a=7;8;9";
+        final CustomLedValues parsed = CustomLedValues.parse(values);
+        assertEquals(new LedValues(7, 8, 9), parsed.get("a"));
+
+        // Replacing the winning entry must not bring back the other one
+        final String updated = "a=1;2;3|b=4;5;6|a=0;8;9";
+        assertEquals(new LedValues(0, 8, 9), parsed.update(updated).get("a"));
+    }
+
+    @MediumTest
+    public void testFuzzMatchesSplit() {
+        final Random random = new Random(0);
+        for (int i = 0; i < 20000; i++) {
+            final String values = randomValues(random);
+            assertSameValues(values, parseWithSplit(values), CustomLedValues.parse(values));
+        }
+    }
+
+    @MediumTest
+    public void testFuzzIncrementalUpdates() {
+        final Random random = new Random(1);
+        for (int run = 0; run < 200; run++) {
+            String values = randomWellFormedValues(random, 1 + random.nextInt(20));
+            CustomLedValues parsed = CustomLedValues.parse(values);
+            for (int i = 0; i < 50; i++) {
+                values = randomEdit(random, values);
+                parsed = parsed.update(values);
+                assertSameValues(values, parseWithSplit(values), parsed);
+                assertEquals(values, CustomLedValues.parse(values), parsed);
+            }
+        }
+    }
+
+    private static String randomValues(Random random) {
+        final StringBuilder sb = new StringBuilder();
+        final int count = random.nextInt(16);
+        for (int i = 0; i < count; i++) {
+            sb.append(TOKENS[random.nextInt(TOKENS.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static String randomEntry(Random random) {
+        return "com.app" + random.nextInt(30) + "=" + (random.nextInt() | 0xFF000000) + ";"
+                + random.nextInt(2000) + ";" + random.nextInt(2000);
+    }
+
+    private static String randomWellFormedValues(Random random, int count) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append('|');
+            }
+            sb.append(randomEntry(random));
+        }
+        return sb.toString();
+    }
+
+    // Mostly edits like the settings app makes, sometimes garbage
+    private static String randomEdit(Random random, String values) {
+        final String[] entries = values.isEmpty() ? new String[0] : values.split("\\|", -1);
+        final StringBuilder sb = new StringBuilder();
+        switch (random.nextInt(5)) {
+            case 0:
+                // Change one entry
+                if (entries.length > 0) {
+                    entries[random.nextInt(entries.length)] = randomEntry(random);
+                }
+                return String.join("|", entries);
+            case 1:
+                // Add one entry
+                return values.isEmpty() ? randomEntry(random)
+                        : values + "|" + randomEntry(random);
+            case 2:
+                // Remove one entry
+                if (entries.length > 0) {
+                    final int removed = random.nextInt(entries.length);
+                    for (int i = 0; i < entries.length; i++) {
+                        if (i != removed) {
+                            if (sb.length() > 0) {
+                                sb.append('|');
+                            }
+                            sb.append(entries[i]);
+                        }
+                    }
+                }
+                return sb.toString();
+            default:
+                // Replace a random range with random tokens
+                final int start = values.isEmpty() ? 0 : random.nextInt(values.length() + 1);
+                final int end = start + random.nextInt(Math.min(8, values.length() - start) + 1);
+                return values.substring(0, start) + randomValues(random) + values.substring(end);
+        }
+    }
+}
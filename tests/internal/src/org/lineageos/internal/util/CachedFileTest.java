@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.internal.util;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class CachedFileTest extends AndroidTestCase {
+    private static final String TAG = "CachedFileTest";
+
+    private static final int WARMUP_ITERATIONS = 1000;
+    private static final int MEASURED_ITERATIONS = 20000;
+
+    private File mFile;
+    private File mOtherFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(getContext().getCacheDir(), "cached_file_test");
+        mOtherFile = new File(getContext().getCacheDir(), "cached_file_test_other");
+        mFile.delete();
+        mOtherFile.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        mOtherFile.delete();
+        super.tearDown();
+    }
+
+    private static void write(File file, String contents) throws IOException {
+        // Rewrite in place, the way a sysfs node changes its value
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(contents.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String repeat(char c, int count) {
+        final char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    @SmallTest
+    public void testReadOneLineMatchesFileUtils() throws IOException {
+        final String[] contents = {
+            "",
+            "1",
+            "1\n",
+            "\n",
+            "first\nsecond\n",
+            "dos\r\nline\r\n",
+            "mac\rline",
+            "  spaces  \n",
+            "\u00e4\u00f6\u00fc \u20ac\n",
+            repeat('x', 511) + "\n",
+            repeat('x', 512),
+            repeat('x', 512) + "\n",
+            repeat('y', 3000) + "\r\n" + repeat('z', 100),
+            // Back to short after the buffer grew
+            "short\n",
+        };
+
+        final CachedFile cachedFile = new CachedFile(mFile.getPath());
+        for (String content : contents) {
+            write(mFile, content);
+            assertEquals(content, FileUtils.readOneLine(mFile.getPath()),
+                    cachedFile.readOneLine());
+        }
+        cachedFile.close();
+    }
+
+    @SmallTest
+    public void testFileThatComesAndGoes() throws IOException {
+        final CachedFile cachedFile = new CachedFile(mFile.getPath());
+        assertNull(cachedFile.readOneLine());
+
+        write(mFile, "1\n");
+        assertEquals("1", cachedFile.readOneLine());
+
+        mFile.delete();
+        write(mFile, "2\n");
+        // The open handle still points at the deleted file until it fails
+        cachedFile.close();
+        assertEquals("2", cachedFile.readOneLine());
+        cachedFile.close();
+    }
+
+    @SmallTest
+    public void testReadLong() throws IOException {
+        final CachedFile cachedFile = new CachedFile(mFile.getPath());
+        assertEquals(-1, cachedFile.readLong(-1));
+
+        final String[] contents = { "123\n", "-5", "+7\n", "12 \n", "12\r\n", "0\t\n" };
+        final long[] values = { 123, -5, 7, 12, 12, 0 };
+        for (int i = 0; i < contents.length; i++) {
+            write(mFile, contents[i]);
+            assertEquals(contents[i], values[i], cachedFile.readLong(-1));
+        }
+
+        for (String content : new String[] { "", "\n", "-", "abc", "1a", " 1" }) {
+            write(mFile, content);
+            assertEquals(content, -1, cachedFile.readLong(-1));
+        }
+        cachedFile.close();
+    }
+
+    @SmallTest
+    public void testWriteLine() throws IOException {
+        final CachedFile cachedFile = new CachedFile(mFile.getPath());
+        assertFalse(cachedFile.writeLine("1"));
+
+        write(mFile, "");
+        assertTrue(cachedFile.writeLine("42"));
+        assertEquals("42", FileUtils.readOneLine(mFile.getPath()));
+        assertTrue(cachedFile.writeLine("43"));
+        assertEquals("43", cachedFile.readOneLine());
+        cachedFile.close();
+    }
+
+    @SmallTest
+    public void testReadLines() throws IOException {
+        write(mFile, "on\n");
+        final CachedFile[] files = {
+            new CachedFile(mFile.getPath()),
+            new CachedFile(new File(getContext().getCacheDir(), "missing").getPath()),
+            new CachedFile(mOtherFile.getPath()),
+        };
+        final String[] lines = new String[files.length];
+
+        assertEquals(1, CachedFile.readLines(files, lines));
+        assertEquals("on", lines[0]);
+        assertNull(lines[1]);
+        assertNull(lines[2]);
+
+        write(mOtherFile, "255\n");
+        assertEquals(2, CachedFile.readLines(files, lines));
+        assertEquals("255", lines[2]);
+
+        for (CachedFile file : files) {
+            file.close();
+        }
+    }
+
+    @LargeTest
+    public void testBenchmarkReadOneLine() throws IOException {
+        write(mFile, "1234567\n");
+        final String fileName = mFile.getPath();
+        final CachedFile cachedFile = new CachedFile(fileName);
+
+        final long fileUtils = measure(new Runnable() {
+            @Override
+            public void run() {
+                FileUtils.readOneLine(fileName);
+            }
+        });
+        final long cachedLine = measure(new Runnable() {
+            @Override
+            public void run() {
+                cachedFile.readOneLine();
+            }
+        });
+        final long cachedLong = measure(new Runnable() {
+            @Override
+            public void run() {
+                cachedFile.readLong(0);
+            }
+        });
+        cachedFile.close();
+
+        Log.i(TAG, "FileUtils.readOneLine: " + fileUtils + " ns/op, CachedFile.readOneLine: "
+                + cachedLine + " ns/op, CachedFile.readLong: " + cachedLong + " ns/op");
+        assertTrue(cachedLine < fileUtils);
+    }
+
+    private static long measure(Runnable runnable) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            runnable.run();
+        }
+        final long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            runnable.run();
+        }
+        return (SystemClock.elapsedRealtimeNanos() - start) / MEASURED_ITERATIONS;
+    }
+}
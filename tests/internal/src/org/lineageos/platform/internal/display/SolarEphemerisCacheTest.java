@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.platform.internal.display;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.text.format.DateUtils;
+
+import java.time.Instant;
+
+public class SolarEphemerisCacheTest extends AndroidTestCase {
+    // TwilightCalculator works in terrestrial time and is about a minute late on
+    // universal time, the cache adds up to a minute on top, depending on the time
+    // of day it is asked at
+    private static final long TOLERANCE = 3 * DateUtils.MINUTE_IN_MILLIS;
+
+    private static final double LONDON_LAT = 51.5074;
+    private static final double LONDON_LNG = -0.1278;
+    private static final double NEW_YORK_LAT = 40.7128;
+    private static final double NEW_YORK_LNG = -74.0060;
+    private static final double SYDNEY_LAT = -33.8688;
+    private static final double SYDNEY_LNG = 151.2093;
+    private static final double QUITO_LAT = -0.1807;
+    private static final double QUITO_LNG = -78.4678;
+    private static final double LONGYEARBYEN_LAT = 78.2232;
+    private static final double LONGYEARBYEN_LNG = 15.6267;
+
+    private static long at(String time) {
+        return Instant.parse(time).toEpochMilli();
+    }
+
+    /**
+     * Civil dawn and dusk as given by the NOAA solar calculator.
+     */
+    @SmallTest
+    public void testMatchesPublishedTimes() {
+        assertTwilight(LONDON_LAT, LONDON_LNG,
+                "2024-06-21T02:55:24Z", "2024-06-21T21:09:26Z");
+        assertTwilight(LONDON_LAT, LONDON_LNG,
+                "2024-12-21T07:23:40Z", "2024-12-21T16:34:00Z");
+        assertTwilight(LONDON_LAT, LONDON_LNG,
+                "2024-03-20T05:29:00Z", "2024-03-20T18:47:43Z");
+        assertTwilight(NEW_YORK_LAT, NEW_YORK_LNG,
+                "2024-06-21T08:51:41Z", "2024-06-22T01:04:17Z");
+        assertTwilight(NEW_YORK_LAT, NEW_YORK_LNG,
+                "2024-12-21T11:45:50Z", "2024-12-21T22:03:04Z");
+        assertTwilight(SYDNEY_LAT, SYDNEY_LNG,
+                "2024-06-20T20:32:20Z", "2024-06-21T07:21:40Z");
+        assertTwilight(SYDNEY_LAT, SYDNEY_LNG,
+                "2024-12-20T18:11:43Z", "2024-12-21T09:34:51Z");
+        assertTwilight(SYDNEY_LAT, SYDNEY_LNG,
+                "2024-03-19T19:33:24Z", "2024-03-20T08:31:11Z");
+        assertTwilight(QUITO_LAT, QUITO_LNG,
+                "2024-03-20T10:57:11Z", "2024-03-20T23:45:01Z");
+    }
+
+    private static void assertTwilight(double latitude, double longitude, String dawn,
+            String dusk) {
+        final long sunrise = at(dawn);
+        final long sunset = at(dusk);
+        final long[] times = {
+            sunrise - DateUtils.HOUR_IN_MILLIS,
+            (sunrise + sunset) / 2,
+            sunset + DateUtils.HOUR_IN_MILLIS,
+        };
+        final int[] states = {
+            TwilightCalculator.NIGHT,
+            TwilightCalculator.DAY,
+            TwilightCalculator.NIGHT,
+        };
+
+        for (int i = 0; i < times.length; i++) {
+            final SolarEphemerisCache cache = new SolarEphemerisCache();
+            cache.calculateTwilight(times[i], latitude, longitude);
+            final String where = latitude + "," + longitude + " at " + times[i];
+            assertTrue(where + ": sunrise " + cache.mSunrise,
+                    Math.abs(cache.mSunrise - sunrise) < TOLERANCE);
+            assertTrue(where + ": sunset " + cache.mSunset,
+                    Math.abs(cache.mSunset - sunset) < TOLERANCE);
+            assertEquals(where, states[i], cache.mState);
+        }
+    }
+
+    @SmallTest
+    public void testDayAndNightThatNeverEnd() {
+        final SolarEphemerisCache cache = new SolarEphemerisCache();
+
+        cache.calculateTwilight(at("2024-06-21T00:00:00Z"), LONGYEARBYEN_LAT,
+                LONGYEARBYEN_LNG);
+        assertEquals(-1, cache.mSunrise);
+        assertEquals(-1, cache.mSunset);
+        assertEquals(TwilightCalculator.DAY, cache.mState);
+
+        cache.calculateTwilight(at("2024-12-21T12:00:00Z"), LONGYEARBYEN_LAT,
+                LONGYEARBYEN_LNG);
+        assertEquals(-1, cache.mSunrise);
+        assertEquals(-1, cache.mSunset);
+        assertEquals(TwilightCalculator.NIGHT, cache.mState);
+    }
+
+    @SmallTest
+    public void testCoordinatesAreRounded() {
+        final long time = at("2024-06-21T12:00:00Z");
+        final SolarEphemerisCache cache = new SolarEphemerisCache();
+
+        // Both round to 51.51,-0.13
+        cache.calculateTwilight(time, 51.5074, -0.1278);
+        final long sunrise = cache.mSunrise;
+        final long sunset = cache.mSunset;
+        cache.calculateTwilight(time, 51.5051, -0.1349);
+        assertEquals(sunrise, cache.mSunrise);
+        assertEquals(sunset, cache.mSunset);
+
+        // One step further in either direction is a different place
+        cache.calculateTwilight(time, 51.5151, -0.1278);
+        assertTrue(sunset != cache.mSunset);
+        cache.calculateTwilight(time, 51.5074, -0.1378);
+        assertTrue(sunset != cache.mSunset);
+
+        // And the entry of the first place is still the same
+        cache.calculateTwilight(time, 51.5074, -0.1278);
+        assertEquals(sunrise, cache.mSunrise);
+        assertEquals(sunset, cache.mSunset);
+    }
+
+    @SmallTest
+    public void testSolarDayBoundary() {
+        final long day = TwilightCalculator.getSolarDay(at("2024-06-21T12:00:00Z"),
+                NEW_YORK_LNG);
+        final long noon = TwilightCalculator.getSolarNoon(day, NEW_YORK_LNG);
+        assertEquals(day, TwilightCalculator.getSolarDay(noon, NEW_YORK_LNG));
+
+        // Mean solar noon, almost five hours after noon in Greenwich
+        final long utcNoon = at("2024-06-21T12:00:00Z");
+        assertTrue(Math.abs(noon - utcNoon - 74.006 / 360 * DateUtils.DAY_IN_MILLIS)
+                < 2 * DateUtils.MINUTE_IN_MILLIS);
+
+        // The solar day changes at solar midnight
+        final long midnight = noon + DateUtils.DAY_IN_MILLIS / 2;
+        final long margin = 10 * DateUtils.MINUTE_IN_MILLIS;
+        assertEquals(day, TwilightCalculator.getSolarDay(midnight - margin, NEW_YORK_LNG));
+        assertEquals(day + 1, TwilightCalculator.getSolarDay(midnight + margin, NEW_YORK_LNG));
+
+        // Throughout the day the cache yields exactly the same times...
+        final SolarEphemerisCache cache = new SolarEphemerisCache();
+        cache.calculateTwilight(noon, NEW_YORK_LAT, NEW_YORK_LNG);
+        final long sunrise = cache.mSunrise;
+        final long sunset = cache.mSunset;
+        for (long time = midnight - DateUtils.DAY_IN_MILLIS + margin; time < midnight - margin;
+                time += DateUtils.HOUR_IN_MILLIS) {
+            cache.calculateTwilight(time, NEW_YORK_LAT, NEW_YORK_LNG);
+            assertEquals(sunrise, cache.mSunrise);
+            assertEquals(sunset, cache.mSunset);
+            assertEquals(time > sunrise && time < sunset
+                    ? TwilightCalculator.DAY : TwilightCalculator.NIGHT, cache.mState);
+        }
+
+        // ...and the next one moves on by a day, give or take a few minutes
+        cache.calculateTwilight(midnight + margin, NEW_YORK_LAT, NEW_YORK_LNG);
+        assertTrue(Math.abs(cache.mSunrise - sunrise - DateUtils.DAY_IN_MILLIS)
+                < 5 * DateUtils.MINUTE_IN_MILLIS);
+        assertTrue(Math.abs(cache.mSunset - sunset - DateUtils.DAY_IN_MILLIS)
+                < 5 * DateUtils.MINUTE_IN_MILLIS);
+        assertEquals(TwilightCalculator.NIGHT, cache.mState);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.platform.internal.health;
+
+import android.os.BatteryManager;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.text.format.DateUtils;
+
+import java.io.File;
+import java.util.Random;
+
+public class ChargeTimeModelTest extends AndroidTestCase {
+    private static final int AC = BatteryManager.BATTERY_PLUGGED_AC;
+    private static final int USB = BatteryManager.BATTERY_PLUGGED_USB;
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(getContext().getCacheDir(), "charge_time_model_test.bin");
+        mFile.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    /**
+     * Replays recorded nights of charging, asking for a prediction at every level
+     * change before feeding it to the model, the same way the controller does.
+     */
+    @SmallTest
+    public void testReplayPredictsTimeToFull() {
+        final ChargeTimeModel model = new ChargeTimeModel(null);
+        final Random random = new Random(0);
+
+        // One night is enough to learn every band the session went through,
+        // but it can only predict once it reached the last one
+        Replay replay = replay(model, recordSession(random, 20));
+        assertTrue(replay.mCovered < 10);
+        model.interrupt();
+
+        for (int night = 0; night < 5; night++) {
+            replay = replay(model, recordSession(random, 20 + night * 5));
+            model.interrupt();
+
+            assertEquals(replay.mPredictions, replay.mCovered);
+            assertTrue("mean error " + replay.getMeanError(),
+                    replay.getMeanError() < 3 * DateUtils.MINUTE_IN_MILLIS);
+            assertTrue("max error " + replay.mMaxError,
+                    replay.mMaxError < 6 * DateUtils.MINUTE_IN_MILLIS);
+        }
+
+        // Nothing is known about other chargers or levels never seen
+        assertEquals(-1, model.predictTimeToFull(50, USB));
+        assertEquals(-1, model.predictTimeToFull(5, AC));
+    }
+
+    @SmallTest
+    public void testInterruptionsAreNotLearned() {
+        final ChargeTimeModel model = new ChargeTimeModel(null);
+        final Session session = recordSession(new Random(0), 20);
+        for (int i = 0; i < session.mSize; i++) {
+            model.onBatteryLevel(session.mTimes[i], session.mLevels[i], AC);
+        }
+        model.interrupt();
+        final long predicted = model.predictTimeToFull(50, AC);
+        assertTrue(predicted > 0);
+
+        // A pause, e.g. while charging was stopped, must not look like slow charging
+        final long time = session.mTimes[session.mSize - 1] + DateUtils.HOUR_IN_MILLIS;
+        model.onBatteryLevel(time, 60, AC);
+        model.onBatteryLevel(time + 20 * DateUtils.MINUTE_IN_MILLIS, 61, AC);
+
+        // Neither must switching chargers in between
+        model.onBatteryLevel(time + 40 * DateUtils.MINUTE_IN_MILLIS, 62, USB);
+        model.onBatteryLevel(time + 60 * DateUtils.MINUTE_IN_MILLIS, 63, AC);
+
+        assertEquals(-1, model.predictTimeToFull(50, USB));
+        assertEquals(predicted, model.predictTimeToFull(50, AC));
+    }
+
+    @SmallTest
+    public void testSavedPeriodicallyAndRestored() {
+        final ChargeTimeModel model = new ChargeTimeModel(mFile);
+        final Session session = recordSession(new Random(0), 20);
+
+        // The first two levels only start the measurement, nine steps are not enough yet
+        for (int i = 0; i < 11; i++) {
+            model.onBatteryLevel(session.mTimes[i], session.mLevels[i], AC);
+            model.saveIfNeeded();
+        }
+        assertFalse(mFile.exists());
+
+        model.onBatteryLevel(session.mTimes[11], session.mLevels[11], AC);
+        model.saveIfNeeded();
+        assertTrue(mFile.exists());
+
+        for (int i = 12; i < session.mSize; i++) {
+            model.onBatteryLevel(session.mTimes[i], session.mLevels[i], AC);
+            model.saveIfNeeded();
+        }
+        model.saveIfDirty();
+
+        final ChargeTimeModel restored = new ChargeTimeModel(mFile);
+        restored.load();
+        for (int level = 20; level < 100; level += 10) {
+            assertEquals(model.predictTimeToFull(level, AC),
+                    restored.predictTimeToFull(level, AC));
+        }
+    }
+
+    /* Level changes recorded while continuously charging */
+    private static final class Session {
+        final long[] mTimes = new long[101];
+        final int[] mLevels = new int[101];
+        int mSize;
+    }
+
+    /**
+     * A night on a fast charger: quick up to 80%, then slowing down as the
+     * charger tapers the current, with a little noise on every step.
+     */
+    private static Session recordSession(Random random, int startLevel) {
+        final Session session = new Session();
+        long time = random.nextInt((int) DateUtils.HOUR_IN_MILLIS);
+        for (int level = startLevel; level <= 100; level++) {
+            session.mTimes[session.mSize] = time;
+            session.mLevels[session.mSize] = level;
+            session.mSize++;
+
+            final long msPerPercent = level < 80 ? 50 * DateUtils.SECOND_IN_MILLIS
+                    : level < 90 ? 2 * DateUtils.MINUTE_IN_MILLIS
+                    : 4 * DateUtils.MINUTE_IN_MILLIS;
+            time += msPerPercent + (random.nextInt(21) - 10) * DateUtils.SECOND_IN_MILLIS;
+        }
+        return session;
+    }
+
+    private static final class Replay {
+        int mPredictions;
+        int mCovered;
+        long mTotalError;
+        long mMaxError;
+
+        long getMeanError() {
+            return mCovered > 0 ? mTotalError / mCovered : -1;
+        }
+    }
+
+    private static Replay replay(ChargeTimeModel model, Session session) {
+        final Replay replay = new Replay();
+        final long fullTime = session.mTimes[session.mSize - 1];
+        for (int i = 0; i < session.mSize; i++) {
+            final long time = session.mTimes[i];
+            final int level = session.mLevels[i];
+            if (level < 100) {
+                replay.mPredictions++;
+                final long predicted = model.predictTimeToFull(level, AC);
+                if (predicted >= 0) {
+                    final long error = Math.abs(predicted - (fullTime - time));
+                    replay.mCovered++;
+                    replay.mTotalError += error;
+                    replay.mMaxError = Math.max(replay.mMaxError, error);
+                }
+            }
+            model.onBatteryLevel(time, level, AC);
+        }
+        return replay;
+    }
+}
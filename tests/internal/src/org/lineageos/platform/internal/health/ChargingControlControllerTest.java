@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.platform.internal.health;
+
+import android.os.BatteryManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.text.format.DateUtils;
+
+import java.time.Instant;
+import java.time.ZoneId;
+
+import vendor.lineage.health.ChargingControlSupportedMode;
+
+import static lineageos.health.HealthInterface.MODE_AUTO;
+import static lineageos.health.HealthInterface.MODE_LIMIT;
+import static lineageos.health.HealthInterface.MODE_MANUAL;
+
+/**
+ * Replays nights of charging through the charging control policy on a simulated
+ * clock, battery and HAL, and checks both the outcome and the HAL traffic.
+ */
+public class ChargingControlControllerTest extends AndroidTestCase {
+    private static final int TOGGLE = ChargingControlSupportedMode.TOGGLE;
+    private static final int BYPASS = ChargingControlSupportedMode.BYPASS;
+    private static final int DEADLINE = ChargingControlSupportedMode.DEADLINE;
+
+    private static final long MS_PER_PERCENT = 90 * DateUtils.SECOND_IN_MILLIS;
+    private static final long NIGHT = 8 * DateUtils.HOUR_IN_MILLIS;
+
+    private Handler mHandler;
+    private long mStart;
+    private long mTarget;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mHandler = new Handler(Looper.getMainLooper());
+        // Whole minutes, manual mode works with seconds of the day
+        mStart = System.currentTimeMillis() / DateUtils.MINUTE_IN_MILLIS
+                * DateUtils.MINUTE_IN_MILLIS;
+        mTarget = mStart + NIGHT;
+    }
+
+    private ChargingControlSimulator plugIn(int supportedMode, int mode, int level) {
+        final ChargingControlSimulator sim = new ChargingControlSimulator(getContext(),
+                mHandler, supportedMode, MS_PER_PERCENT, mStart, level);
+        sim.setNextAlarmTime(mTarget);
+        sim.getController().setConfig(true, mode, 80, getSecondOfDay(mStart),
+                getSecondOfDay(mTarget));
+        sim.plug(BatteryManager.BATTERY_PLUGGED_AC);
+        return sim;
+    }
+
+    private static int getSecondOfDay(long time) {
+        return Instant.ofEpochMilli(time).atZone(ZoneId.systemDefault())
+                .toLocalTime().toSecondOfDay();
+    }
+
+    @SmallTest
+    public void testLimitStopsAtLimit() {
+        final ChargingControlSimulator sim = plugIn(TOGGLE, MODE_LIMIT, 20);
+        sim.runUntil(mTarget);
+
+        assertEquals(80, sim.getLevel());
+        assertFalse(sim.isChargingEnabled());
+        assertEquals(60, sim.mBatteryEvents - 1);
+
+        // Asked when configured and when connected, told once, notified when
+        // charging and when done
+        assertEquals(2, sim.mGetEnabledCalls);
+        assertEquals(1, sim.mSetEnabledCalls);
+        assertEquals(2, sim.mNotifyCalls);
+        // Nothing to wake up for in limit mode
+        assertEquals(0, sim.mAlarmsFired);
+    }
+
+    @SmallTest
+    public void testReceiversRunOnHandler() {
+        final ChargingControlSimulator sim = plugIn(TOGGLE, MODE_LIMIT, 20);
+        sim.unplug();
+        sim.plug(BatteryManager.BATTERY_PLUGGED_AC);
+
+        // Every state change must happen on the same thread
+        assertEquals(0, sim.mReceiversWithoutHandler);
+    }
+
+    @SmallTest
+    public void testReplugReadsHalAgain() {
+        final ChargingControlSimulator sim = plugIn(TOGGLE, MODE_LIMIT, 20);
+        sim.unplug();
+        sim.setHalChargingEnabled(false);
+        sim.plug(BatteryManager.BATTERY_PLUGGED_AC);
+
+        // What the HAL was told before unplugging no longer counts
+        assertTrue(sim.isChargingEnabled());
+    }
+
+    @SmallTest
+    public void testChargerChangeReadsHalAgain() {
+        final ChargingControlSimulator sim = plugIn(TOGGLE, MODE_LIMIT, 20);
+        sim.runUntil(mTarget);
+        assertFalse(sim.isChargingEnabled());
+
+        final int getEnabledCalls = sim.mGetEnabledCalls;
+        sim.setHalChargingEnabled(true);
+        sim.changeCharger(BatteryManager.BATTERY_PLUGGED_WIRELESS);
+
+        assertFalse(sim.isChargingEnabled());
+        assertEquals(getEnabledCalls + 1, sim.mGetEnabledCalls);
+    }
+
+    @SmallTest
+    public void testAutoFullAtAlarm() {
+        final ChargingControlSimulator sim = plugIn(TOGGLE, MODE_AUTO, 20);
+        sim.runUntil(mTarget + DateUtils.HOUR_IN_MILLIS);
+
+        // Left alone, the battery would have been full after two hours
+        assertEquals(100, sim.getLevel());
+        assertTrue(sim.mFullTime <= mTarget);
+        assertTrue(sim.mFullTime >= mTarget - 2 * DateUtils.HOUR_IN_MILLIS);
+
+        // Stopped once, resumed once by a timed wakeup instead of polling,
+        // and stopped again once full
+        assertEquals(3, sim.mSetEnabledCalls);
+        assertFalse(sim.isChargingEnabled());
+        assertEquals(2, sim.mGetEnabledCalls);
+        assertTrue(sim.mAlarmsFired >= 1);
+        assertTrue(sim.mAlarmsFired <= 2);
+    }
+
+    @SmallTest
+    public void testManualFullAtTargetTime() {
+        final ChargingControlSimulator sim = plugIn(TOGGLE | BYPASS, MODE_MANUAL, 20);
+        sim.runUntil(mTarget + DateUtils.HOUR_IN_MILLIS);
+
+        assertEquals(100, sim.getLevel());
+        assertTrue(sim.mFullTime <= mTarget);
+        assertTrue(sim.mFullTime >= mTarget - 2 * DateUtils.HOUR_IN_MILLIS);
+        assertEquals(3, sim.mSetEnabledCalls);
+    }
+
+    @SmallTest
+    public void testDeadlineSetOnce() {
+        final ChargingControlSimulator sim = plugIn(DEADLINE, MODE_AUTO, 20);
+        sim.runUntil(mTarget + DateUtils.HOUR_IN_MILLIS);
+
+        // The HAL spreads the charge up to the deadline on its own
+        assertEquals(100, sim.getLevel());
+        assertTrue(sim.mFullTime <= mTarget);
+        assertTrue(sim.mFullTime >= mTarget - 10 * DateUtils.MINUTE_IN_MILLIS);
+
+        // Told once, not on every battery change
+        assertEquals(1, sim.mSetDeadlineCalls);
+        assertEquals(0, sim.mSetEnabledCalls);
+    }
+
+    @SmallTest
+    public void testAlarmBeyondMaxWaitTimeIsIgnored() {
+        mTarget = mStart + 12 * DateUtils.HOUR_IN_MILLIS;
+        final ChargingControlSimulator sim = plugIn(TOGGLE, MODE_AUTO, 20);
+        sim.runUntil(mStart + 4 * DateUtils.HOUR_IN_MILLIS);
+
+        // Too far from the alarm to hold charging back
+        assertEquals(100, sim.getLevel());
+        assertEquals(0, sim.mSetEnabledCalls);
+    }
+
+    @SmallTest
+    public void testFailedHalCallIsRetried() {
+        final ChargingControlSimulator sim = plugIn(TOGGLE, MODE_LIMIT, 75);
+        sim.setHalFailing(true);
+        sim.runUntil(mStart + 7 * MS_PER_PERCENT);
+        assertEquals(82, sim.getLevel());
+        assertTrue(sim.isChargingEnabled());
+
+        // The next battery change tries again
+        sim.setHalFailing(false);
+        sim.runUntil(mTarget);
+        assertEquals(83, sim.getLevel());
+        assertFalse(sim.isChargingEnabled());
+    }
+}
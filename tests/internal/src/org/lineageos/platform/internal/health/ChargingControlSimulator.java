@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.platform.internal.health;
+
+import android.app.AlarmManager;
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Handler;
+import android.os.RemoteException;
+
+import java.io.File;
+
+/**
+ * Replays a charging session through a {@link ChargingControlController} on a
+ * simulated clock, battery and HAL. Hours of charging run in milliseconds and
+ * every HAL call, notification and wakeup is counted.
+ *
+ * The simulated battery charges one percent every {@code msPerPercent} while the
+ * HAL lets it, and spreads the remaining charge up to a requested deadline.
+ */
+final class ChargingControlSimulator {
+    private final SimulatedInjector mInjector;
+    private final ChargingControlController mController;
+    private final long mMsPerPercent;
+
+    // Simulated battery and HAL
+    private long mNow;
+    private int mLevel;
+    private long mLevelTime;
+    private int mPlugType = BatteryManager.BATTERY_PLUGGED_AC;
+    private boolean mChargingEnabled = true;
+    private long mDeadline = -1;
+    private boolean mHalFailing;
+
+    // Counters
+    int mGetEnabledCalls;
+    int mSetEnabledCalls;
+    int mSetDeadlineCalls;
+    int mNotifyCalls;
+    int mCancelCalls;
+    int mAlarmsSet;
+    int mAlarmsFired;
+    int mBatteryEvents;
+    int mReceiversWithoutHandler;
+    long mFullTime = -1;
+
+    ChargingControlSimulator(Context context, Handler handler, int supportedMode,
+            long msPerPercent, long startTime, int level) {
+        mMsPerPercent = msPerPercent;
+        mNow = startTime;
+        mLevel = level;
+        mLevelTime = startTime;
+        mInjector = new SimulatedInjector(context, supportedMode);
+        mController = new ChargingControlController(context, handler, mInjector);
+    }
+
+    ChargingControlController getController() {
+        return mController;
+    }
+
+    void setNextAlarmTime(long time) {
+        mInjector.mNextAlarmTime = time;
+    }
+
+    /**
+     * Make the HAL refuse every call until reset, as if it crashed.
+     */
+    void setHalFailing(boolean failing) {
+        mHalFailing = failing;
+    }
+
+    boolean isChargingEnabled() {
+        return mChargingEnabled;
+    }
+
+    long getNow() {
+        return mNow;
+    }
+
+    int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * Plug in with the given charger type.
+     */
+    void plug(int plugType) {
+        mPlugType = plugType;
+        mLevelTime = mNow;
+        mController.setPowerConnected(true);
+        onBatteryChanged();
+    }
+
+    void unplug() {
+        mController.setPowerConnected(false);
+    }
+
+    /**
+     * Switch to another charger without unplugging, as a dock or stand does.
+     */
+    void changeCharger(int plugType) {
+        mPlugType = plugType;
+        onBatteryChanged();
+    }
+
+    /**
+     * Change whether the HAL charges behind the back of the controller, as some
+     * HALs do when a charger is (re)connected.
+     */
+    void setHalChargingEnabled(boolean enabled) {
+        if (enabled && !mChargingEnabled) {
+            mLevelTime = mNow;
+        }
+        mChargingEnabled = enabled;
+    }
+
+    /**
+     * Keep charging until {@code endTime}, firing alarms and battery changes on the way.
+     */
+    void runUntil(long endTime) {
+        while (mNow < endTime) {
+            final long levelTime = getNextLevelTime();
+            final long alarm = mInjector.mAlarmTime;
+            if (alarm >= 0 && alarm <= Math.min(levelTime, endTime)) {
+                mNow = Math.max(alarm, mNow);
+                mInjector.mAlarmTime = -1;
+                mAlarmsFired++;
+                mInjector.mAlarmListener.onAlarm();
+            } else if (levelTime <= endTime) {
+                mNow = levelTime;
+                mLevel++;
+                mLevelTime = mNow;
+                if (mLevel == 100) {
+                    mFullTime = mNow;
+                }
+                onBatteryChanged();
+            } else {
+                mNow = endTime;
+            }
+        }
+    }
+
+    private void onBatteryChanged() {
+        mBatteryEvents++;
+        mController.onBatteryChanged(mLevel, mPlugType);
+    }
+
+    private long getNextLevelTime() {
+        if (mLevel >= 100 || !mChargingEnabled) {
+            return Long.MAX_VALUE;
+        }
+        long step = mMsPerPercent;
+        if (mDeadline > 0) {
+            step = Math.max(step, (mDeadline - mLevelTime) / (100 - mLevel));
+        }
+        return Math.max(mLevelTime + step, mNow);
+    }
+
+    private final class SimulatedInjector extends ChargingControlInjector {
+        private final int mSupportedMode;
+        private long mNextAlarmTime;
+        private long mAlarmTime = -1;
+        private AlarmManager.OnAlarmListener mAlarmListener;
+
+        SimulatedInjector(Context context, int supportedMode) {
+            super(context);
+            mSupportedMode = supportedMode;
+        }
+
+        @Override
+        Hal getHal() {
+            return new Hal() {
+                @Override
+                public int getSupportedMode() {
+                    return mSupportedMode;
+                }
+
+                @Override
+                public boolean getChargingEnabled() throws RemoteException {
+                    mGetEnabledCalls++;
+                    if (mHalFailing) {
+                        throw new RemoteException();
+                    }
+                    return mChargingEnabled;
+                }
+
+                @Override
+                public void setChargingEnabled(boolean enabled) throws RemoteException {
+                    mSetEnabledCalls++;
+                    if (mHalFailing) {
+                        throw new RemoteException();
+                    }
+                    if (enabled && !mChargingEnabled) {
+                        // The next percent takes a full step from when charging resumed
+                        mLevelTime = mNow;
+                    }
+                    mChargingEnabled = enabled;
+                }
+
+                @Override
+                public void setChargingDeadline(long deadline) throws RemoteException {
+                    mSetDeadlineCalls++;
+                    if (mHalFailing) {
+                        throw new RemoteException();
+                    }
+                    mDeadline = deadline > 0 ? mNow + deadline * 1000 : -1;
+                }
+            };
+        }
+
+        @Override
+        long currentTimeMillis() {
+            return mNow;
+        }
+
+        @Override
+        long elapsedRealtime() {
+            return mNow;
+        }
+
+        @Override
+        long getNextAlarmTime() {
+            return mNextAlarmTime;
+        }
+
+        @Override
+        void setUpdateAlarm(long triggerTime, AlarmManager.OnAlarmListener listener,
+                Handler handler) {
+            mAlarmsSet++;
+            mAlarmTime = triggerTime;
+            mAlarmListener = listener;
+        }
+
+        @Override
+        void cancelUpdateAlarm(AlarmManager.OnAlarmListener listener) {
+            mAlarmTime = -1;
+        }
+
+        @Override
+        long getChargeTimeRemaining() {
+            return (100 - mLevel) * mMsPerPercent;
+        }
+
+        @Override
+        File getChargeTimeModelFile() {
+            return null;
+        }
+
+        @Override
+        Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter,
+                Handler handler) {
+            if (handler == null) {
+                mReceiversWithoutHandler++;
+            }
+            return null;
+        }
+
+        @Override
+        void unregisterReceiver(BroadcastReceiver receiver) {
+        }
+
+        @Override
+        void notify(int id, Notification notification) {
+            mNotifyCalls++;
+        }
+
+        @Override
+        void cancelNotification(int id) {
+            mCancelCalls++;
+        }
+
+        @Override
+        void createNotificationChannelIfNeeded(NotificationChannel channel) {
+        }
+    }
+}
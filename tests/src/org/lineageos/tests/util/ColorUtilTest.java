@@ -24,10 +24,13 @@ import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.ColorDrawable;
 import android.test.AndroidTestCase;
 import lineageos.util.ColorUtils;
+import lineageos.util.palette.Palette;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import java.util.Random;
+
 public class ColorUtilTest extends AndroidTestCase {
     private ColorUtils mColorUtils;
 
@@ -108,6 +111,59 @@ public class ColorUtilTest extends AndroidTestCase {
         bitmap.recycle();
     }
 
+    public void testGenerateAlertColorMatchesPalette() {
+        final Random random = new Random(0);
+        for (int size : new int[] { 24, 48, 96, 144, 192, 193, 256, 384 }) {
+            for (int i = 0; i < 5; i++) {
+                final Bitmap bitmap = PaletteTest.createIcon(random, size);
+
+                // What the alert color was taken from before the sampled fast path
+                final Palette palette = Palette.from(bitmap).generate();
+                final Palette.Swatch dominant = ColorUtils.getDominantSwatch(palette);
+                int expected = Color.BLACK;
+                if (dominant != null) {
+                    expected = ColorUtils.findPerceptuallyNearestSolidColor(dominant.getRgb());
+                }
+                if (expected == Color.BLACK || expected == Color.WHITE) {
+                    expected = ColorUtils.findPerceptuallyNearestSolidColor(
+                            palette.getVibrantColor(Color.WHITE));
+                }
+
+                assertEquals("size " + size, expected, ColorUtils.generateAlertColorFromDrawable(
+                        new BitmapDrawable(bitmap)));
+                bitmap.recycle();
+            }
+        }
+    }
+
+    public void testConvertRGBtoLABInPlace() {
+        float[] lab = new float[3];
+        for (int color : new int[] { Color.RED, Color.WHITE, Color.BLACK, 0xFF123456 }) {
+            mColorUtils.convertRGBtoLAB(color, lab);
+            float[] expected = mColorUtils.convertRGBtoLAB(color);
+            assertEquals(expected[0], lab[0]);
+            assertEquals(expected[1], lab[1]);
+            assertEquals(expected[2], lab[2]);
+        }
+    }
+
+    public void testFindPerceptuallyNearestSolidColor() {
+        final int[] solidColors = new int[] {
+            Color.RED, 0xFFFFA500, Color.YELLOW, Color.GREEN, Color.CYAN,
+            Color.BLUE, Color.MAGENTA, Color.WHITE, Color.BLACK
+        };
+        // The lookup table must agree with the exact search, including cell borders
+        for (int r = 0; r < 256; r += 3) {
+            for (int g = 0; g < 256; g += 5) {
+                for (int b = 0; b < 256; b += 7) {
+                    int color = Color.rgb(r, g, b);
+                    assertEquals(mColorUtils.findPerceptuallyNearestColor(color, solidColors),
+                            mColorUtils.findPerceptuallyNearestSolidColor(color));
+                }
+            }
+        }
+    }
+
     private ColorDrawable getColorDrawableFromBitmapDrawable(final BitmapDrawable bitmapDrawable) {
         ColorDrawable colorDrawable = Mockito.mock(ColorDrawable.class);
         Mockito.doAnswer(new Answer() {
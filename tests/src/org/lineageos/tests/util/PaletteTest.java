@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) 2026 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.tests.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import lineageos.util.ColorUtils;
+import lineageos.util.palette.Palette;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+public class PaletteTest extends AndroidTestCase {
+    private static final String TAG = "PaletteTest";
+
+    private static final int WARMUP_ITERATIONS = 50;
+    private static final int MEASURED_ITERATIONS = 200;
+
+    @SmallTest
+    public void testGenerateColorsMatchesBuilder() {
+        final Random random = new Random(0);
+        final int[] colors = new int[2];
+        for (int i = 0; i < 20; i++) {
+            final Bitmap bitmap = createIcon(random, 16 + random.nextInt(176));
+            final Palette palette = Palette.from(bitmap).generate();
+            final Palette.Swatch dominant = ColorUtils.getDominantSwatch(palette);
+
+            final boolean found = Palette.generateColors(bitmap, 192, Color.WHITE, colors);
+            assertEquals(dominant != null, found);
+            if (dominant != null) {
+                assertEquals(dominant.getRgb(), colors[Palette.COLOR_DOMINANT]);
+            }
+            assertEquals(palette.getVibrantColor(Color.WHITE), colors[Palette.COLOR_VIBRANT]);
+            bitmap.recycle();
+        }
+    }
+
+    @SmallTest
+    public void testGenerateColorsOfWideBitmaps() {
+        // Rows wider than the reused row buffer are read in parts
+        final Random random = new Random(0);
+        final int[] colors = new int[2];
+        for (int size : new int[] { 193, 384, 500 }) {
+            final Bitmap bitmap = createIcon(random, size);
+            final Palette palette = Palette.from(bitmap).resizeBitmapSize(size).generate();
+            final Palette.Swatch dominant = ColorUtils.getDominantSwatch(palette);
+
+            final boolean found = Palette.generateColors(bitmap, size, Color.WHITE, colors);
+            assertEquals(dominant != null, found);
+            if (dominant != null) {
+                assertEquals(dominant.getRgb(), colors[Palette.COLOR_DOMINANT]);
+            }
+            assertEquals(palette.getVibrantColor(Color.WHITE), colors[Palette.COLOR_VIBRANT]);
+            bitmap.recycle();
+        }
+    }
+
+    @SmallTest
+    public void testGenerateAsyncSharesRequests() throws Exception {
+        final Bitmap bitmap = createIcon(new Random(0), 64);
+        final List<Runnable> jobs = new ArrayList<>();
+        final Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                jobs.add(command);
+            }
+        };
+
+        // Requests for the same bitmap share one generation, cancelling one keeps it going
+        final Future<Palette> first = Palette.from(bitmap).generate(executor, null);
+        final Future<Palette> second = Palette.from(bitmap).generate(executor, null);
+        assertEquals(1, jobs.size());
+        first.cancel(true);
+        assertTrue(first.isCancelled());
+        jobs.get(0).run();
+        assertNotNull(second.get());
+
+        // Then the generated palette is reused until the bitmap is modified
+        final Future<Palette> cached = Palette.from(bitmap).generate(executor, null);
+        assertEquals(1, jobs.size());
+        assertSame(second.get(), cached.get());
+        bitmap.eraseColor(Color.RED);
+        Palette.from(bitmap).generate(executor, null).cancel(true);
+        assertEquals(2, jobs.size());
+        bitmap.recycle();
+    }
+
+    @LargeTest
+    public void testBenchmarkGenerateColors() {
+        final Bitmap icon = createIcon(new Random(0), 192);
+        final int[] colors = new int[2];
+
+        final long builder = measure(new Runnable() {
+            @Override
+            public void run() {
+                final Palette palette = Palette.from(icon).generate();
+                ColorUtils.getDominantSwatch(palette);
+                palette.getVibrantColor(Color.WHITE);
+            }
+        });
+        final long fullSize = measure(new Runnable() {
+            @Override
+            public void run() {
+                Palette.generateColors(icon, 192, Color.WHITE, colors);
+            }
+        });
+        final long sampled = measure(new Runnable() {
+            @Override
+            public void run() {
+                Palette.generateColors(icon, 96, Color.WHITE, colors);
+            }
+        });
+        icon.recycle();
+
+        Log.i(TAG, "Palette.Builder: " + builder + " ns/op, generateColors(192): " + fullSize
+                + " ns/op, generateColors(96): " + sampled + " ns/op");
+    }
+
+    private static long measure(Runnable runnable) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            runnable.run();
+        }
+        final long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            runnable.run();
+        }
+        return (SystemClock.elapsedRealtimeNanos() - start) / MEASURED_ITERATIONS;
+    }
+
+    // A few flat shapes on a transparent background, roughly like an app icon
+    static Bitmap createIcon(Random random, int size) {
+        final Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+        final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        for (int i = 0; i < 4; i++) {
+            paint.setColor(0xFF000000 | random.nextInt(0x1000000));
+            canvas.drawCircle(random.nextInt(size), random.nextInt(size),
+                    size / 8 + random.nextInt(size / 2), paint);
+        }
+        return bitmap;
+    }
+}